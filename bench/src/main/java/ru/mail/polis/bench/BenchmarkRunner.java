@@ -0,0 +1,19 @@
+package ru.mail.polis.bench;
+
+/**
+ * Entry point of benchmarks.jar: the standard JMH command line with the GC profiler
+ * (allocation rate, bytes per operation, GC counts) always enabled.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] withGc = new String[args.length + 2];
+        withGc[0] = "-prof";
+        withGc[1] = "gc";
+        System.arraycopy(args, 0, withGc, 2, args.length);
+        org.openjdk.jmh.Main.main(withGc);
+    }
+}
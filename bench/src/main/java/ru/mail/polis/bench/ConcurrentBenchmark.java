@@ -0,0 +1,92 @@
+package ru.mail.polis.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.ISet;
+
+/**
+ * Mixed workload on one set shared by all benchmark threads: {@code writePercent} of the
+ * operations add an absent key and remove it again, the rest are successful lookups.
+ * Runs on all available cores by default; pass {@code -t N} to measure scaling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Threads(Threads.MAX)
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class ConcurrentBenchmark {
+
+    @Param({"SKIP_LIST", "SNAPSHOT_RED_BLACK", "CONCURRENT_CHAIN_HASH"})
+    public Impl impl;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"INTEGER", "STRING"})
+    public KeyType keyType;
+
+    @Param({"0", "10", "50"})
+    public int writePercent;
+
+    ISet set;
+    Comparable[] present;
+    Comparable[] absent;
+    private final AtomicInteger threadSeeds = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void fill() {
+        present = keyType.keys(0, size, true);
+        absent = keyType.keys(size, size, true);
+        set = impl.build(present);
+    }
+
+    /**
+     * Per-thread sequence of operations, drawn up front so that the measured loop does not
+     * touch a shared random generator.
+     */
+    @State(Scope.Thread)
+    public static class Ops {
+        private int[] probes;
+        private boolean[] writes;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void draw(ConcurrentBenchmark shared) {
+            Random rnd = new Random(SetState.SEED + shared.threadSeeds.getAndIncrement());
+            probes = Distribution.UNIFORM.sample(shared.size, SetState.PROBES, rnd);
+            writes = new boolean[SetState.PROBES];
+            for (int i = 0; i < writes.length; i++) {
+                writes[i] = rnd.nextInt(100) < shared.writePercent;
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean mixed(Ops ops) {
+        int i = ops.next++ & (SetState.PROBES - 1);
+        int idx = ops.probes[i];
+        if (ops.writes[i]) {
+            Comparable key = absent[idx];
+            return set.add(key) & set.remove(key);
+        }
+        return set.contains(present[idx]);
+    }
+}
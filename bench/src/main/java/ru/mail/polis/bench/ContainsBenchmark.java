@@ -0,0 +1,45 @@
+package ru.mail.polis.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Successful and unsuccessful lookups in a set of {@code size} keys.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@SuppressWarnings("unchecked")
+public class ContainsBenchmark extends SetState {
+
+    @Param({"AVL", "RED_BLACK", "ARENA_RED_BLACK", "BLOOM_RED_BLACK", "SNAPSHOT_RED_BLACK", "BST", "EYTZINGER", "SKIP_LIST", "CHAIN_HASH", "CHAIN_HASH_INCREMENTAL", "ARRAY_CHAIN_HASH", "CONCURRENT_CHAIN_HASH", "OPEN_HASH"})
+    public Impl impl;
+
+    @Override
+    Impl impl() {
+        return impl;
+    }
+
+    @Benchmark
+    public boolean containsHit() {
+        return set.contains(present[nextProbe()]);
+    }
+
+    @Benchmark
+    public boolean containsMiss() {
+        return set.contains(absent[nextProbe()]);
+    }
+}
@@ -0,0 +1,102 @@
+package ru.mail.polis.bench;
+
+import java.util.Random;
+
+/**
+ * Key distributions under benchmark. A distribution decides both what the keys look like
+ * (ascending numbers for SEQUENTIAL, scrambled otherwise) and in which order the benchmarks
+ * touch them.
+ */
+public enum Distribution {
+    /**
+     * Scrambled keys, every key is equally likely to be accessed.
+     */
+    UNIFORM {
+        @Override
+        int[] sample(int n, int count, Random rnd) {
+            int[] indices = new int[count];
+            for (int i = 0; i < count; i++) {
+                indices[i] = rnd.nextInt(n);
+            }
+            return indices;
+        }
+    },
+    /**
+     * Ascending keys accessed in ascending order, e.g. timestamps or auto-increment ids.
+     */
+    SEQUENTIAL {
+        @Override
+        int[] sample(int n, int count, Random rnd) {
+            int[] indices = new int[count];
+            for (int i = 0; i < count; i++) {
+                indices[i] = i % n;
+            }
+            return indices;
+        }
+    },
+    /**
+     * Scrambled keys with Zipf-distributed (theta = 0.99) access frequencies: a few hot keys
+     * get most of the traffic.
+     */
+    ZIPFIAN {
+        @Override
+        int[] sample(int n, int count, Random rnd) {
+            ZipfianGenerator zipf = new ZipfianGenerator(n, 0.99);
+            int[] indices = new int[count];
+            for (int i = 0; i < count; i++) {
+                indices[i] = zipf.next(rnd);
+            }
+            return indices;
+        }
+    };
+
+    boolean scrambled() {
+        return this != SEQUENTIAL;
+    }
+
+    /**
+     * @return count indices in [0, n) in the order the benchmark should access them
+     */
+    abstract int[] sample(int n, int count, Random rnd);
+
+    /**
+     * Zipfian generator from Gray et al., "Quickly Generating Billion-Record Synthetic
+     * Databases" (the one used by YCSB).
+     */
+    static final class ZipfianGenerator {
+        private final int n;
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+
+        ZipfianGenerator(int n, double theta) {
+            this.n = n;
+            this.theta = theta;
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zetan = zeta(n, theta);
+            double zeta2 = zeta(2, theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetan);
+        }
+
+        int next(Random rnd) {
+            double u = rnd.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return Math.min(1, n - 1);
+            }
+            return Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ru.mail.polis.bench;
+
+import java.util.Arrays;
+
+import ru.mail.polis.AVLTree;
+import ru.mail.polis.ArenaRedBlackTree;
+import ru.mail.polis.ArrayChainHashTable;
+import ru.mail.polis.BinarySearchTree;
+import ru.mail.polis.BloomFilteredSet;
+import ru.mail.polis.ChainHashTable;
+import ru.mail.polis.ConcurrentChainHashTable;
+import ru.mail.polis.EytzingerSortedSet;
+import ru.mail.polis.ISet;
+import ru.mail.polis.LockFreeSkipList;
+import ru.mail.polis.OpenHashTable;
+import ru.mail.polis.RedBlackTree;
+import ru.mail.polis.SnapshotRedBlackTree;
+
+/**
+ * Set implementations under benchmark. Names are used as JMH {@code @Param} values.
+ */
+@SuppressWarnings("rawtypes")
+public enum Impl {
+    AVL {
+        @Override
+        ISet create() {
+            return new AVLTree();
+        }
+    },
+    RED_BLACK {
+        @Override
+        ISet create() {
+            return new RedBlackTree();
+        }
+    },
+    ARENA_RED_BLACK {
+        @Override
+        ISet create() {
+            return new ArenaRedBlackTree();
+        }
+    },
+    BLOOM_RED_BLACK {
+        @Override
+        @SuppressWarnings("unchecked")
+        ISet create() {
+            return new BloomFilteredSet(new RedBlackTree());
+        }
+    },
+    SNAPSHOT_RED_BLACK {
+        @Override
+        ISet create() {
+            return new SnapshotRedBlackTree();
+        }
+    },
+    BST {
+        @Override
+        ISet create() {
+            return new BinarySearchTree();
+        }
+
+        @Override
+        int maxSize(Distribution distribution) {
+            //на отсортированном входе дерево вырождается в список
+            return distribution == Distribution.SEQUENTIAL ? 100_000 : Integer.MAX_VALUE;
+        }
+    },
+    EYTZINGER {
+        @Override
+        ISet create() {
+            throw new UnsupportedOperationException("frozen set is only built from keys");
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        ISet build(Comparable[] keys) {
+            Comparable[] sorted = keys.clone();
+            Arrays.sort(sorted);
+            return EytzingerSortedSet.fromSorted(Arrays.asList(sorted), null);
+        }
+    },
+    SKIP_LIST {
+        @Override
+        ISet create() {
+            return new LockFreeSkipList();
+        }
+    },
+    CHAIN_HASH {
+        @Override
+        ISet create() {
+            return new ChainHashTable();
+        }
+    },
+    CHAIN_HASH_INCREMENTAL {
+        @Override
+        ISet create() {
+            return new ChainHashTable(null, true);
+        }
+    },
+    ARRAY_CHAIN_HASH {
+        @Override
+        ISet create() {
+            return new ArrayChainHashTable();
+        }
+    },
+    CONCURRENT_CHAIN_HASH {
+        @Override
+        ISet create() {
+            return new ConcurrentChainHashTable();
+        }
+    },
+    OPEN_HASH {
+        @Override
+        ISet create() {
+            return new OpenHashTable();
+        }
+    };
+
+    abstract ISet create();
+
+    /**
+     * @return a set holding exactly the given distinct keys
+     */
+    @SuppressWarnings("unchecked")
+    ISet build(Comparable[] keys) {
+        ISet set = create();
+        for (Comparable key : keys) {
+            set.add(key);
+        }
+        return set;
+    }
+
+    /**
+     * @return the largest size that can be filled in reasonable time with keys of the given distribution
+     */
+    int maxSize(Distribution distribution) {
+        return Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,66 @@
+package ru.mail.polis.bench;
+
+/**
+ * Key types under benchmark. Key number i is mapped either to itself (sequential keys)
+ * or through a bijective mixer (scrambled keys), so keys are always distinct and
+ * keys [0, n) never intersect keys [n, 2n).
+ */
+@SuppressWarnings("rawtypes")
+public enum KeyType {
+    INTEGER {
+        @Override
+        Comparable key(long i, boolean scrambled) {
+            return scrambled ? mix32((int) i) : (int) i;
+        }
+    },
+    LONG {
+        @Override
+        Comparable key(long i, boolean scrambled) {
+            return scrambled ? mix64(i) : i;
+        }
+    },
+    STRING {
+        private static final String ZEROS = "0000000000000000";
+
+        @Override
+        Comparable key(long i, boolean scrambled) {
+            //фиксированная длина, чтобы лексикографический порядок совпадал с числовым
+            String hex = Long.toHexString(scrambled ? mix64(i) : i);
+            return ZEROS.substring(hex.length()) + hex;
+        }
+    };
+
+    abstract Comparable key(long i, boolean scrambled);
+
+    Comparable[] keys(long from, int count, boolean scrambled) {
+        Comparable[] keys = new Comparable[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = key(from + i, scrambled);
+        }
+        return keys;
+    }
+
+    /**
+     * murmur3 fmix32, a bijection on int
+     */
+    static int mix32(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * murmur3 fmix64, a bijection on long
+     */
+    static long mix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
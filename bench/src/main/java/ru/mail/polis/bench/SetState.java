@@ -0,0 +1,61 @@
+package ru.mail.polis.bench;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ru.mail.polis.ISet;
+
+/**
+ * Common state of all set benchmarks: a set of {@code size} keys plus a pool of the same
+ * number of keys that are guaranteed to be absent. Subclasses declare which implementations
+ * they run against.
+ */
+@State(Scope.Thread)
+@SuppressWarnings("rawtypes")
+public abstract class SetState {
+
+    static final int PROBES = 1 << 16;
+    static final long SEED = 42;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"INTEGER", "LONG", "STRING"})
+    public KeyType keyType;
+
+    @Param({"UNIFORM", "SEQUENTIAL", "ZIPFIAN"})
+    public Distribution distribution;
+
+    ISet set;
+    Comparable[] present;
+    Comparable[] absent;
+    private int[] probes;
+    private int probe;
+
+    abstract Impl impl();
+
+    @Setup(Level.Trial)
+    public void fill() {
+        Impl impl = impl();
+        if (size > impl.maxSize(distribution)) {
+            throw new IllegalStateException(impl + " is not benchmarked with " + distribution
+                    + " keys above " + impl.maxSize(distribution) + " elements");
+        }
+        boolean scrambled = distribution.scrambled();
+        present = keyType.keys(0, size, scrambled);
+        absent = keyType.keys(size, size, scrambled);
+        probes = distribution.sample(size, PROBES, new Random(SEED));
+        set = impl.build(present);
+    }
+
+    /**
+     * @return next key index in [0, size) according to the distribution
+     */
+    int nextProbe() {
+        return probes[probe++ & (PROBES - 1)];
+    }
+}
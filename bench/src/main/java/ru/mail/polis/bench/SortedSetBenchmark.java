@@ -0,0 +1,56 @@
+package ru.mail.polis.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.ISortedSet;
+
+/**
+ * Order-dependent operations of {@link ISortedSet} implementations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@SuppressWarnings("rawtypes")
+public class SortedSetBenchmark extends SetState {
+
+    @Param({"AVL", "RED_BLACK", "ARENA_RED_BLACK", "SNAPSHOT_RED_BLACK", "BST", "EYTZINGER", "SKIP_LIST"})
+    public Impl impl;
+
+    @Override
+    Impl impl() {
+        return impl;
+    }
+
+    private ISortedSet sorted() {
+        return (ISortedSet) set;
+    }
+
+    @Benchmark
+    public Object first() {
+        return sorted().first();
+    }
+
+    @Benchmark
+    public Object last() {
+        return sorted().last();
+    }
+
+    @Benchmark
+    public List inorderTraverse() {
+        return sorted().inorderTraverse();
+    }
+}
@@ -0,0 +1,120 @@
+package ru.mail.polis.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.ISet;
+
+/**
+ * Inserts and removals at a steady size: every invocation adds (or removes) a batch of
+ * BATCH distinct keys, and the set is restored to {@code size} elements outside of the
+ * measured region before the next one. Note that the GC profiler samples whole iterations, so
+ * allocation figures also include nodes re-created while restoring the set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class UpdateBenchmark extends SetState {
+
+    static final int BATCH = 100;
+
+    @Param({"AVL", "RED_BLACK", "ARENA_RED_BLACK", "BLOOM_RED_BLACK", "SNAPSHOT_RED_BLACK", "BST", "SKIP_LIST", "CHAIN_HASH", "CHAIN_HASH_INCREMENTAL", "ARRAY_CHAIN_HASH", "CONCURRENT_CHAIN_HASH", "OPEN_HASH"})
+    public Impl impl;
+
+    private final Comparable[] toAdd = new Comparable[BATCH];
+    private final Comparable[] toRemove = new Comparable[BATCH];
+    private int sequentialOffset;
+
+    @Override
+    Impl impl() {
+        return impl;
+    }
+
+    @Setup(Level.Invocation)
+    public void nextBatch() {
+        ISet set = this.set;
+        for (int i = 0; i < BATCH; i++) {
+            if (toAdd[i] != null) {
+                set.remove(toAdd[i]);
+            }
+            if (toRemove[i] != null) {
+                set.add(toRemove[i]);
+            }
+        }
+        if (distribution == Distribution.SEQUENTIAL) {
+            //окно по возрастанию: добавляем в конец, удаляем с начала
+            for (int i = 0; i < BATCH; i++) {
+                int idx = (sequentialOffset + i) % size;
+                toAdd[i] = absent[idx];
+                toRemove[i] = present[idx];
+            }
+            sequentialOffset = (sequentialOffset + BATCH) % size;
+        } else {
+            pickDistinct(absent, toAdd);
+            pickDistinct(present, toRemove);
+        }
+    }
+
+    /**
+     * Fills batch with distinct keys drawn by the distribution; BATCH is much smaller than
+     * size, so a linear duplicate check is cheap, and hot Zipfian keys fall back to neighbours.
+     */
+    private void pickDistinct(Comparable[] keys, Comparable[] batch) {
+        for (int i = 0; i < BATCH; i++) {
+            int idx = nextProbe();
+            while (contains(batch, i, keys[idx])) {
+                idx = (idx + 1) % size;
+            }
+            batch[i] = keys[idx];
+        }
+    }
+
+    private static boolean contains(Comparable[] batch, int count, Comparable key) {
+        for (int i = 0; i < count; i++) {
+            if (batch[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int add() {
+        int added = 0;
+        for (Comparable key : toAdd) {
+            if (set.add(key)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int remove() {
+        int removed = 0;
+        for (Comparable key : toRemove) {
+            if (set.remove(key)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,45 @@
+package ru.mail.polis;
+
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilteredSetTest {
+
+    //равные для CASE_INSENSITIVE_ORDER строки получают равные хеши
+    private static final HashStrategy<String> CASE_INSENSITIVE = value -> value.toLowerCase(Locale.ROOT).hashCode();
+
+    @Test
+    void comparatorEqualElementsPassTheFilter() {
+        RedBlackTree<String> tree = new RedBlackTree<>(String.CASE_INSENSITIVE_ORDER);
+        tree.add("abc");
+        BloomFilteredSet<String> set = new BloomFilteredSet<>(tree, CASE_INSENSITIVE);
+        assertTrue(set.contains("ABC"));
+        assertTrue(set.contains("aBc"));
+        assertFalse(set.add("ABC"));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void comparatorEqualElementsSurviveRebuilds() {
+        BloomFilteredSet<String> set = new BloomFilteredSet<>(
+                new AVLTree<>(String.CASE_INSENSITIVE_ORDER), CASE_INSENSITIVE);
+        int n = 5000;
+        for (int i = 0; i < n; i++) {
+            assertTrue(set.add("key" + i));
+        }
+        for (int i = 0; i < n; i += 2) {
+            assertTrue(set.remove("KEY" + i));
+        }
+        //фильтр заполняется заново из элементов дерева
+        set.rebuild();
+        for (int i = 0; i < n; i++) {
+            assertEquals((i & 1) == 1, set.contains("Key" + i), "key" + i);
+        }
+        assertEquals(n / 2, set.size());
+    }
+}
@@ -0,0 +1,158 @@
+package ru.mail.polis;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrentChainHashTableTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 200;
+    private static final int KEYS_PER_THREAD = 4096;
+
+    /**
+     * Replays the lost race of checkResize without threads: a Resize is installed for a table
+     * whose doubling has already been published, so every bucket of it is a forwarding node.
+     * Running the transfer must neither fail on those nodes nor publish the stale copy.
+     */
+    @Test
+    void staleResizeOfForwardedTableChangesNothing() throws Exception {
+        ConcurrentChainHashTable<Integer> set = new ConcurrentChainHashTable<>(null, 1);
+        AtomicReferenceArray<?> forwarded = table(set);
+        int n = forwarded.length() * 2;
+        for (int k = 0; k < n; k++) {
+            assertTrue(set.add(k));
+        }
+        AtomicReferenceArray<?> current = table(set);
+        assertTrue(current.length() > forwarded.length());
+
+        @SuppressWarnings("unchecked")
+        AtomicReferenceArray<ConcurrentChainHashTable<Integer>.Node> old =
+                (AtomicReferenceArray<ConcurrentChainHashTable<Integer>.Node>) forwarded;
+        ConcurrentChainHashTable<Integer>.Resize stale = set.new Resize(old);
+        resize(set).set(stale);
+        Method transfer = ConcurrentChainHashTable.class.getDeclaredMethod("transfer",
+                ConcurrentChainHashTable.Resize.class);
+        transfer.setAccessible(true);
+        transfer.invoke(set, stale);
+
+        assertSame(current, table(set));
+        assertNull(resize(set).get());
+        assertEquals(n, set.size());
+        for (int k = 0; k < n; k++) {
+            assertTrue(set.contains(k), "lost " + k);
+        }
+        //таблица остаётся рабочей и продолжает расти
+        for (int k = n; k < 4 * n; k++) {
+            assertTrue(set.add(k));
+        }
+        for (int k = 0; k < 4 * n; k++) {
+            assertTrue(set.contains(k), "lost " + k);
+        }
+    }
+
+    private static AtomicReferenceArray<?> table(ConcurrentChainHashTable<?> set) throws ReflectiveOperationException {
+        return (AtomicReferenceArray<?>) field("table").get(set);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReference<Object> resize(ConcurrentChainHashTable<?> set) throws ReflectiveOperationException {
+        return (AtomicReference<Object>) field("resize").get(set);
+    }
+
+    private static Field field(String name) throws NoSuchFieldException {
+        Field field = ConcurrentChainHashTable.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    /**
+     * One stripe and a 16-bucket start: every round doubles the table about ten times while
+     * all threads insert, so resizes start right after the previous one is published.
+     */
+    @Test
+    void backToBackResizesKeepEveryElement() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                ConcurrentChainHashTable<Integer> set = new ConcurrentChainHashTable<>(null, 1);
+                CyclicBarrier start = new CyclicBarrier(THREADS);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                    int from = t * KEYS_PER_THREAD;
+                    futures.add(pool.submit(() -> {
+                        start.await();
+                        for (int k = from; k < from + KEYS_PER_THREAD; k++) {
+                            assertTrue(set.add(k));
+                            assertTrue(set.contains(k));
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                assertEquals(THREADS * KEYS_PER_THREAD, set.size());
+                for (int k = 0; k < THREADS * KEYS_PER_THREAD; k++) {
+                    assertTrue(set.contains(k), "lost " + k + " in round " + round);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void concurrentAddAndRemoveDuringResizes() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < ROUNDS / 4; round++) {
+                ConcurrentChainHashTable<Integer> set = new ConcurrentChainHashTable<>(null, 2);
+                CyclicBarrier start = new CyclicBarrier(THREADS);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                    int from = t * KEYS_PER_THREAD;
+                    futures.add(pool.submit(() -> {
+                        start.await();
+                        //нечётные ключи удаляются сразу, чётные остаются
+                        for (int k = from; k < from + KEYS_PER_THREAD; k++) {
+                            assertTrue(set.add(k));
+                            if ((k & 1) == 1) {
+                                assertTrue(set.remove(k));
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                assertEquals(THREADS * KEYS_PER_THREAD / 2, set.size());
+                for (int k = 0; k < THREADS * KEYS_PER_THREAD; k++) {
+                    if ((k & 1) == 0) {
+                        assertTrue(set.contains(k), "lost " + k + " in round " + round);
+                    } else {
+                        assertFalse(set.contains(k), "kept removed " + k + " in round " + round);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package ru.mail.polis;
 
+import java.util.ArrayDeque;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 //TODO: write code here
 public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
@@ -19,6 +24,9 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         Node left;
         Node right;
         Node parent;
+        int height;
+        //число узлов в поддереве
+        int size = 1;
 
         @Override
         public String toString() {
@@ -38,6 +46,8 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
     private Node root;
     private int size;
     private final Comparator<E> comparator;
+    //null - метрики не собираются
+    private SetMetrics metrics;
 
     public AVLTree() {
         this.comparator = null;
@@ -47,6 +57,68 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         this.comparator = comparator;
     }
 
+    /**
+     * Builds a perfectly balanced tree from values in strictly ascending order in O(n),
+     * without any comparisons beyond the order check and without rebalancing.
+     *
+     * @throws IllegalArgumentException if values are not strictly ascending
+     */
+    public static <E extends Comparable<E>> AVLTree<E> fromSorted(List<E> values) {
+        return fromSorted(values, null);
+    }
+
+    /**
+     * @see #fromSorted(List)
+     */
+    public static <E extends Comparable<E>> AVLTree<E> fromSorted(List<E> values, Comparator<E> comparator) {
+        AVLTree<E> tree = new AVLTree<>(comparator);
+        E prev = null;
+        for (E value : values) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            if (prev != null && tree.compare(prev, value) >= 0) {
+                throw new IllegalArgumentException("values are not strictly ascending: " + prev + ", " + value);
+            }
+            prev = value;
+        }
+        tree.buildFromSorted(values.iterator(), values.size());
+        return tree;
+    }
+
+    /**
+     * Replaces the content of this tree with size values taken from the iterator, which
+     * must be strictly ascending.
+     */
+    void buildFromSorted(Iterator<? extends E> values, int size) {
+        root = buildFromSorted(values, 0, size - 1);
+        if (root != null) {
+            root.parent = null;
+        }
+        this.size = size;
+    }
+
+    private Node buildFromSorted(Iterator<? extends E> values, int lo, int hi) {
+        if (lo > hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node left = buildFromSorted(values, lo, mid - 1);
+        Node node = new Node(values.next());
+        Node right = buildFromSorted(values, mid + 1, hi);
+        node.left = left;
+        node.right = right;
+        if (left != null) {
+            left.parent = node;
+        }
+        if (right != null) {
+            right.parent = node;
+        }
+        updateHeight(node);
+        updateSize(node);
+        return node;
+    }
+
     @Override
     public E first() {
         if (isEmpty()) {
@@ -74,17 +146,237 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
     @Override
     public List<E> inorderTraverse() {
         List<E> list = new ArrayList<E>(size);
-        inorderTraverse(root, list);
+        for (E value : this) {
+            list.add(value);
+        }
         return list;
     }
 
-    private void inorderTraverse(Node curr, List<E> list) {
-        if (curr == null) {
-            return;
+    @Override
+    public Iterator<E> iterator() {
+        return new TreeIterator(firstNode(), null, false);
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return new TreeIterator(lastNode(), null, true);
+    }
+
+    private Node firstNode() {
+        Node curr = root;
+        if (curr != null) {
+            while (curr.left != null) {
+                curr = curr.left;
+            }
+        }
+        return curr;
+    }
+
+    private Node lastNode() {
+        Node curr = root;
+        if (curr != null) {
+            while (curr.right != null) {
+                curr = curr.right;
+            }
+        }
+        return curr;
+    }
+
+    @Override
+    public E floor(E value) {
+        Node node = lowerNode(value, true);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public E ceiling(E value) {
+        Node node = higherNode(value, true);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public E higher(E value) {
+        Node node = higherNode(value, false);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public E lower(E value) {
+        Node node = lowerNode(value, false);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * @return node with the greatest value less than (or equal to, if inclusive) the given one
+     */
+    private Node lowerNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node best = null;
+        Node curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp == 0 && inclusive) {
+                return curr;
+            } else if (cmp < 0) {
+                best = curr;
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return node with the least value greater than (or equal to, if inclusive) the given one
+     */
+    private Node higherNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node best = null;
+        Node curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp == 0 && inclusive) {
+                return curr;
+            } else if (cmp > 0) {
+                best = curr;
+                curr = curr.left;
+            } else {
+                curr = curr.right;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public Iterator<E> range(E from, E to) {
+        if (from == null || to == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (compare(from, to) > 0) {
+            throw new IllegalArgumentException("from is greater than to: " + from + ", " + to);
+        }
+        return new TreeIterator(higherNode(from, true), to, false);
+    }
+
+    /**
+     * Walks successors (or predecessors) through parent links, O(1) extra memory.
+     */
+    private class TreeIterator implements Iterator<E> {
+        private Node next;
+        //исключающая верхняя граница, null - без границы
+        private final E to;
+        private final boolean descending;
+
+        TreeIterator(Node first, E to, boolean descending) {
+            this.to = to;
+            this.descending = descending;
+            this.next = bounded(first);
+        }
+
+        private Node bounded(Node node) {
+            return node == null || to != null && compare(node.value, to) >= 0 ? null : node;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            E value = next.value;
+            next = bounded(descending ? predecessor(next) : successor(next));
+            return value;
+        }
+    }
+
+    @Override
+    public E select(int k) {
+        if (k < 0 || k >= size) {
+            throw new IndexOutOfBoundsException("k = " + k + ", size = " + size);
+        }
+        Node curr = root;
+        while (true) {
+            int leftSize = sizeOf(curr.left);
+            if (k < leftSize) {
+                curr = curr.left;
+            } else if (k > leftSize) {
+                k -= leftSize + 1;
+                curr = curr.right;
+            } else {
+                return curr.value;
+            }
+        }
+    }
+
+    @Override
+    public int rank(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int rank = 0;
+        Node curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp < 0) {
+                rank += sizeOf(curr.left) + 1;
+                curr = curr.right;
+            } else if (cmp > 0) {
+                curr = curr.left;
+            } else {
+                return rank + sizeOf(curr.left);
+            }
+        }
+        return rank;
+    }
+
+    @Override
+    public int countInRange(E from, E to) {
+        if (from == null || to == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (compare(from, to) > 0) {
+            throw new IllegalArgumentException("from is greater than to: " + from + ", " + to);
+        }
+        return rank(to) - rank(from);
+    }
+
+    /**
+     * @return the number of levels, 0 for an empty tree
+     */
+    public int height() {
+        return height(root) + 1;
+    }
+
+    /**
+     * Starts (or, with null, stops) collecting metrics of this tree.
+     */
+    public void setMetrics(SetMetrics metrics) {
+        this.metrics = metrics;
+        if (metrics != null) {
+            metrics.attachTree(this::height);
+        }
+    }
+
+    /**
+     * @return the attached metrics, null if none
+     */
+    public SetMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void beginOperation() {
+        if (metrics != null) {
+            metrics.beginOperation();
         }
-        inorderTraverse(curr.left, list);
-        list.add(curr.value);
-        inorderTraverse(curr.right, list);
     }
 
     @Override
@@ -99,6 +391,7 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
 
     @Override
     public boolean contains(E value) {
+        beginOperation();
         if (value == null) {
             throw new NullPointerException("value is null");
         }
@@ -118,8 +411,43 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         return false;
     }
 
+    /**
+     * Looks the keys up in ascending order, so that consecutive searches share a prefix of
+     * their paths: the nodes where the previous search turned left bound the subtree holding
+     * the next key, and the search resumes from the deepest of them that is still greater
+     * than the key instead of from the root.
+     */
+    @Override
+    public void containsBatch(E[] keys, boolean[] out) {
+        beginOperation();
+        Batches.checkBatch(keys, out);
+        //узлы, в которых предыдущий поиск свернул налево, самый глубокий - на вершине
+        Deque<Node> path = new ArrayDeque<>();
+        for (int i : Batches.sortedOrder(keys, this::compare)) {
+            E key = keys[i];
+            while (!path.isEmpty() && compare(path.peek().value, key) < 0) {
+                path.pop();
+            }
+            boolean found = !path.isEmpty() && compare(path.peek().value, key) == 0;
+            Node curr = path.isEmpty() ? root : path.peek().left;
+            while (!found && curr != null) {
+                int cmp = compare(curr.value, key);
+                if (cmp == 0) {
+                    found = true;
+                } else if (cmp < 0) {
+                    curr = curr.right;
+                } else {
+                    path.push(curr);
+                    curr = curr.left;
+                }
+            }
+            out[i] = found;
+        }
+    }
+
     @Override
     public boolean add(E value) {
+        beginOperation();
         if (value == null) {
             throw new NullPointerException("value is null");
         }
@@ -142,6 +470,7 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
                     p.left = q;
                     p.left.parent = p;
 
+                    addToSizes(p, 1);
                     checkBalance(p);
                     result = true;
                 } else {
@@ -152,7 +481,8 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
                     p.right = q;
                     p.right.parent = p;
 
-                    checkBalance(p.right);
+                    addToSizes(p, 1);
+                    checkBalance(p);
                     result = true;
                 } else {
                     result = addAVLNode(p.right, q);
@@ -165,40 +495,64 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
     }
 
 
+    /**
+     * Walks up from current restoring heights and balance. Stops as soon as a subtree
+     * keeps its previous height, since nothing above it can be affected.
+     */
     private void checkBalance(Node current) {
-        int currentBalanceFactor = balanceFactor(current);
-        if (currentBalanceFactor < -1) {
-            if (height(current.left.left) < height(current.left.right)) {
-                current = rotateLeftRight(current);
-            } else {
-                current = rotateRight(current);
+        if (metrics != null) {
+            metrics.beginRebalance();
+        }
+        while (current != null) {
+            int oldHeight = current.height;
+            updateHeight(current);
+            int currentBalanceFactor = balanceFactor(current);
+            if (currentBalanceFactor < -1) {
+                if (height(current.left.left) < height(current.left.right)) {
+                    current = rotateLeftRight(current);
+                } else {
+                    current = rotateRight(current);
+                }
+            } else if (currentBalanceFactor > 1) {
+                if (height(current.right.right) < height(current.right.left)) {
+                    current = rotateRightLeft(current);
+                } else {
+                    current = rotateLeft(current);
+                }
             }
-        } else if (currentBalanceFactor > 1) {
-            if (height(current.right.right) < height(current.right.left)) {
-                current = rotateRightLeft(current);
-            } else {
-                current = rotateLeft(current);
+            if (current.height == oldHeight) {
+                break;
             }
+            current = current.parent;
         }
-        if (current.parent != null) {
-            checkBalance(current.parent);
-        } else {
-            this.root = current;
+        if (metrics != null) {
+            metrics.endRebalance(this);
         }
     }
 
     private int height(Node current) {
-        if (current == null) {
-            return -1;
-        }
-        if (current.left == null && current.right == null) {
-            return 0;
-        } else if (current.left == null) {
-            return 1 + height(current.right);
-        } else if (current.right == null) {
-            return 1 + height(current.left);
-        } else {
-            return 1 + Math.max(height(current.left), height(current.right));
+        return current == null ? -1 : current.height;
+    }
+
+    private void updateHeight(Node current) {
+        current.height = 1 + Math.max(height(current.left), height(current.right));
+    }
+
+    private int sizeOf(Node current) {
+        return current == null ? 0 : current.size;
+    }
+
+    private void updateSize(Node current) {
+        current.size = 1 + sizeOf(current.left) + sizeOf(current.right);
+    }
+
+    /**
+     * Adds delta to sizes of current and all its ancestors. Unlike heights, sizes change
+     * all the way up to the root on every insert and delete.
+     */
+    private void addToSizes(Node current, int delta) {
+        for (; current != null; current = current.parent) {
+            current.size += delta;
         }
     }
 
@@ -207,6 +561,9 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
     }
 
     private Node rotateLeft(Node n) {
+        if (metrics != null) {
+            metrics.rotated();
+        }
         Node v = n.right;
         n.right = v.left;
 
@@ -216,20 +573,27 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
 
         v.parent = n.parent;
 
-        if (n != root) {
-            if (n.parent.left == n) {
-                n.parent.left = v;
-            } else {
-                n.parent.right = v;
-            }
+        if (n.parent == null) {
+            root = v;
+        } else if (n.parent.left == n) {
+            n.parent.left = v;
+        } else {
+            n.parent.right = v;
         }
         v.left = n;
         n.parent = v;
 
-        return n;
+        updateHeight(n);
+        updateHeight(v);
+        v.size = n.size;
+        updateSize(n);
+        return v;
     }
 
     private Node rotateRight(Node n) {
+        if (metrics != null) {
+            metrics.rotated();
+        }
         Node v = n.left;
         n.left = v.right;
 
@@ -239,32 +603,37 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
 
         v.parent = n.parent;
 
-        if (n != root) {
-            if (n.parent.right == n) {
-                n.parent.right = v;
-            } else {
-                n.parent.left = v;
-            }
+        if (n.parent == null) {
+            root = v;
+        } else if (n.parent.right == n) {
+            n.parent.right = v;
+        } else {
+            n.parent.left = v;
         }
 
         v.right = n;
         n.parent = v;
 
-        return n;
+        updateHeight(n);
+        updateHeight(v);
+        v.size = n.size;
+        updateSize(n);
+        return v;
     }
 
     private Node rotateLeftRight(Node n) {
-        n.left = rotateLeft(n.left);
+        rotateLeft(n.left);
         return rotateRight(n);
     }
 
     private Node rotateRightLeft(Node n) {
-        n.right = rotateRight(n.right);
+        rotateRight(n.right);
         return rotateLeft(n);
     }
 
     @Override
     public boolean remove(E value) {
+        beginOperation();
         if (value == null) {
             throw new NullPointerException("value is null");
         }
@@ -333,6 +702,7 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
             } else {
                 r.parent.right = p;
             }
+            addToSizes(r.parent, -1);
             checkBalance(r.parent);
         }
     }
@@ -354,7 +724,330 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         }
     }
 
+    private Node predecessor(Node q) {
+        if (q.left != null) {
+            Node r = q.left;
+            while (r.right != null) {
+                r = r.right;
+            }
+            return r;
+        }
+        Node p = q.parent;
+        while (p != null && q == p.left) {
+            q = p;
+            p = q.parent;
+        }
+        return p;
+    }
+
+    /**
+     * Pairs of subtrees with fewer nodes than this are combined without forking.
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private static final int UNION = 0;
+    private static final int INTERSECTION = 1;
+    private static final int DIFFERENCE = 2;
+
+    /**
+     * Turns this tree into the union of this and other, which must use the same order.
+     * Other is left unchanged.
+     * <p>
+     * Join-based algorithm (Blelloch, Ferizovic, Sun, "Just join for parallel ordered sets",
+     * 2016): split one tree by the root of the other and combine the halves recursively, the
+     * halves in parallel. O(m log(n/m + 1)) comparisons, where m is the size of the smaller
+     * tree, and O(log n log m) span. Other is copied first in O(m), so call this on the larger
+     * of the two trees.
+     */
+    public void union(AVLTree<E> other) {
+        union(other, ForkJoinPool.commonPool());
+    }
+
+    public void union(AVLTree<E> other, ForkJoinPool pool) {
+        combine(UNION, other, pool);
+    }
+
+    /**
+     * Keeps in this tree only the elements also contained in other, see {@link #union(AVLTree)}.
+     */
+    public void intersection(AVLTree<E> other) {
+        intersection(other, ForkJoinPool.commonPool());
+    }
+
+    public void intersection(AVLTree<E> other, ForkJoinPool pool) {
+        combine(INTERSECTION, other, pool);
+    }
+
+    /**
+     * Removes from this tree all the elements contained in other, see {@link #union(AVLTree)}.
+     */
+    public void difference(AVLTree<E> other) {
+        difference(other, ForkJoinPool.commonPool());
+    }
+
+    public void difference(AVLTree<E> other, ForkJoinPool pool) {
+        combine(DIFFERENCE, other, pool);
+    }
+
+    private void combine(int operation, AVLTree<E> other, ForkJoinPool pool) {
+        if (other == null || pool == null) {
+            throw new NullPointerException();
+        }
+        combineWith(operation, copy(other.root), pool);
+    }
+
+    private void combineWith(int operation, Node other, ForkJoinPool pool) {
+        if (size + sizeOf(other) < PARALLEL_THRESHOLD) {
+            root = combine(operation, root, other);
+        } else {
+            root = pool.invoke(new Combine(operation, root, other));
+        }
+        if (root != null) {
+            root.parent = null;
+        }
+        size = sizeOf(root);
+    }
+
+    /**
+     * Sorts the values and merges them in as a balanced tree built in O(m), see
+     * {@link #union(AVLTree)}.
+     */
+    @Override
+    public int addAll(E[] values) {
+        beginOperation();
+        Batches.checkValues(values);
+        List<E> batch = Batches.sortedDistinct(values, this::compare);
+        int before = size;
+        combineWith(UNION, buildFromSorted(batch.iterator(), 0, batch.size() - 1), ForkJoinPool.commonPool());
+        return size - before;
+    }
+
+    @Override
+    public int removeAll(E[] values) {
+        beginOperation();
+        Batches.checkValues(values);
+        List<E> batch = Batches.sortedDistinct(values, this::compare);
+        int before = size;
+        combineWith(DIFFERENCE, buildFromSorted(batch.iterator(), 0, batch.size() - 1), ForkJoinPool.commonPool());
+        return before - size;
+    }
+
+    private Node copy(Node current) {
+        if (current == null) {
+            return null;
+        }
+        Node node = new Node(current.value);
+        node.height = current.height;
+        node.size = current.size;
+        node.left = copy(current.left);
+        node.right = copy(current.right);
+        if (node.left != null) {
+            node.left.parent = node;
+        }
+        if (node.right != null) {
+            node.right.parent = node;
+        }
+        return node;
+    }
+
+    private class Combine extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        private final int operation;
+        private final Node t1;
+        private final Node t2;
+
+        Combine(int operation, Node t1, Node t2) {
+            this.operation = operation;
+            this.t1 = t1;
+            this.t2 = t2;
+        }
+
+        @Override
+        protected Node compute() {
+            return combine(operation, t1, t2);
+        }
+    }
+
+    /**
+     * Combines two detached trees, reusing their nodes; the subtrees are disjoint, so the
+     * recursive calls may run in parallel.
+     */
+    private Node combine(int operation, Node t1, Node t2) {
+        if (t1 == null) {
+            return operation == UNION ? t2 : null;
+        }
+        if (t2 == null) {
+            return operation == INTERSECTION ? null : t1;
+        }
+        boolean parallel = t1.size + t2.size >= PARALLEL_THRESHOLD;
+        //разность делит t1 по корню t2, объединение и пересечение - t2 по корню t1
+        Node pivot = operation == DIFFERENCE ? t2 : t1;
+        Split split = split(operation == DIFFERENCE ? t1 : t2, pivot.value);
+        Node left1 = operation == DIFFERENCE ? split.left : t1.left;
+        Node right1 = operation == DIFFERENCE ? split.right : t1.right;
+        Node left2 = operation == DIFFERENCE ? t2.left : split.left;
+        Node right2 = operation == DIFFERENCE ? t2.right : split.right;
+        Node left;
+        Node right;
+        if (parallel) {
+            Combine task = new Combine(operation, right1, right2);
+            task.fork();
+            left = combine(operation, left1, left2);
+            right = task.join();
+        } else {
+            left = combine(operation, left1, left2);
+            right = combine(operation, right1, right2);
+        }
+        if (operation == UNION || operation == INTERSECTION && split.node != null) {
+            return join(left, pivot, right);
+        }
+        return join2(left, right);
+    }
+
+    private class Split {
+        Node left;
+        //узел, равный ключу разбиения, null - если его нет
+        final Node node;
+        Node right;
+
+        Split(Node left, Node node, Node right) {
+            this.left = left;
+            this.node = node;
+            this.right = right;
+        }
+    }
+
+    /**
+     * Splits detached tree t into the elements less than value and greater than value in
+     * O(log n), reusing its nodes.
+     */
+    private Split split(Node t, E value) {
+        if (t == null) {
+            return new Split(null, null, null);
+        }
+        int cmp = compare(value, t.value);
+        if (cmp == 0) {
+            return new Split(t.left, t, t.right);
+        }
+        Node left = t.left;
+        Node right = t.right;
+        if (cmp < 0) {
+            Split split = split(left, value);
+            split.right = join(split.right, t, right);
+            return split;
+        }
+        Split split = split(right, value);
+        split.left = join(left, t, split.left);
+        return split;
+    }
+
+    /**
+     * Joins detached trees with all the elements of left less than key and all the elements of
+     * right greater than key in O(|height(left) - height(right)| + 1).
+     */
+    private Node join(Node left, Node key, Node right) {
+        int hl = height(left);
+        int hr = height(right);
+        if (hl > hr + 1) {
+            return joinRight(left, key, right);
+        }
+        if (hr > hl + 1) {
+            return joinLeft(left, key, right);
+        }
+        return link(left, key, right);
+    }
+
+    //спуск по правому краю более высокого left до поддерева высоты height(right) + 1
+    private Node joinRight(Node left, Node key, Node right) {
+        Node inner = left.right;
+        Node joined;
+        if (height(inner) <= height(right) + 1) {
+            joined = link(inner, key, right);
+            if (height(joined) > height(left.left) + 1) {
+                return linkRotateLeft(left.left, left, linkRotateRight(joined));
+            }
+        } else {
+            joined = joinRight(inner, key, right);
+        }
+        if (height(joined) > height(left.left) + 1) {
+            return linkRotateLeft(left.left, left, joined);
+        }
+        return link(left.left, left, joined);
+    }
+
+    private Node joinLeft(Node left, Node key, Node right) {
+        Node inner = right.left;
+        Node joined;
+        if (height(inner) <= height(left) + 1) {
+            joined = link(left, key, inner);
+            if (height(joined) > height(right.right) + 1) {
+                return linkRotateRight(linkRotateLeft(joined), right, right.right);
+            }
+        } else {
+            joined = joinLeft(left, key, inner);
+        }
+        if (height(joined) > height(right.right) + 1) {
+            return linkRotateRight(joined, right, right.right);
+        }
+        return link(joined, right, right.right);
+    }
+
+    private Node link(Node left, Node node, Node right) {
+        node.left = left;
+        node.right = right;
+        if (left != null) {
+            left.parent = node;
+        }
+        if (right != null) {
+            right.parent = node;
+        }
+        updateHeight(node);
+        updateSize(node);
+        return node;
+    }
+
+    //link(left, node, right) с малым поворотом налево
+    private Node linkRotateLeft(Node left, Node node, Node right) {
+        return link(link(left, node, right.left), right, right.right);
+    }
+
+    private Node linkRotateLeft(Node node) {
+        return linkRotateLeft(node.left, node, node.right);
+    }
+
+    private Node linkRotateRight(Node left, Node node, Node right) {
+        return link(left.left, left, link(left.right, node, right));
+    }
+
+    private Node linkRotateRight(Node node) {
+        return linkRotateRight(node.left, node, node.right);
+    }
+
+    /**
+     * Joins detached trees with all the elements of left less than those of right.
+     */
+    private Node join2(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        Split split = splitLast(left);
+        return join(split.left, split.node, right);
+    }
+
+    private Split splitLast(Node t) {
+        if (t.right == null) {
+            return new Split(t.left, t, null);
+        }
+        Split split = splitLast(t.right);
+        split.left = join(t.left, t, split.left);
+        return split;
+    }
+
     private int compare(E v1, E v2) {
+        if (metrics != null) {
+            metrics.compared();
+        }
         return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
     }
 
@@ -0,0 +1,576 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link RedBlackTree} without node objects: node i is described by left[i], right[i], parent[i],
+ * bit i of the colour bitset and values[i], and links are indices into these arrays. An element
+ * costs about 16 bytes plus its value, against about 40 for a node object, and the collector
+ * traces a handful of arrays instead of a graph of n objects.
+ * <p>
+ * Slot 0 is the nil sentinel. Slots of removed nodes are kept in a free list threaded through
+ * left[] and reused by the next inserts; the arrays grow 1.5x when neither a free slot nor
+ * spare capacity is left, and never shrink.
+ */
+public class ArenaRedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private static final int NIL = 0;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    //бит i - цвет узла i: 1 - красный, 0 - чёрный; nil всегда чёрный
+    private long[] red;
+    private Object[] values;
+    //слоты с индексом меньше used заняты узлами или лежат в списке свободных
+    private int used = 1;
+    //голова списка освобождённых слотов, NIL - список пуст
+    private int free = NIL;
+    private int root = NIL;
+    private int size;
+    private final Comparator<E> comparator;
+
+    public ArenaRedBlackTree() {
+        this(null);
+    }
+
+    public ArenaRedBlackTree(Comparator<E> comparator) {
+        this(comparator, 0);
+    }
+
+    /**
+     * @param expectedSize number of elements the arrays can hold without growing
+     */
+    public ArenaRedBlackTree(Comparator<E> comparator, int expectedSize) {
+        if (expectedSize < 0 || expectedSize > MAX_CAPACITY - 1) {
+            throw new IllegalArgumentException("illegal expected size: " + expectedSize);
+        }
+        this.comparator = comparator;
+        allocateArrays(Math.max(INITIAL_CAPACITY, expectedSize + 1));
+    }
+
+    private void allocateArrays(int capacity) {
+        left = new int[capacity];
+        right = new int[capacity];
+        parent = new int[capacity];
+        red = new long[(capacity + 63) >>> 6];
+        values = new Object[capacity];
+    }
+
+    private void grow() {
+        int capacity = values.length;
+        if (capacity == MAX_CAPACITY) {
+            throw new IllegalStateException("tree is full: " + size);
+        }
+        capacity = (int) Math.min(MAX_CAPACITY, capacity + (capacity >> 1) + 1L);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        red = Arrays.copyOf(red, (capacity + 63) >>> 6);
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    //массивы могут быть заменены, поэтому их нельзя кэшировать в локальных переменных вокруг вызова
+    private int allocate(E value) {
+        int slot;
+        if (free != NIL) {
+            slot = free;
+            free = left[slot];
+        } else {
+            if (used == values.length) {
+                grow();
+            }
+            slot = used++;
+        }
+        left[slot] = NIL;
+        right[slot] = NIL;
+        parent[slot] = NIL;
+        setRed(slot);
+        values[slot] = value;
+        return slot;
+    }
+
+    private void release(int slot) {
+        values[slot] = null;
+        right[slot] = NIL;
+        parent[slot] = NIL;
+        left[slot] = free;
+        free = slot;
+    }
+
+    private boolean isRed(int node) {
+        return (red[node >>> 6] & (1L << node)) != 0;
+    }
+
+    private void setRed(int node) {
+        red[node >>> 6] |= 1L << node;
+    }
+
+    private void setBlack(int node) {
+        red[node >>> 6] &= ~(1L << node);
+    }
+
+    private void setColor(int node, boolean isRed) {
+        if (isRed) {
+            setRed(node);
+        } else {
+            setBlack(node);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E valueAt(int node) {
+        return (E) values[node];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        return find(value) != NIL;
+    }
+
+    private int find(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int curr = root;
+        while (curr != NIL) {
+            int cmp = compare(valueAt(curr), value);
+            if (cmp == 0) {
+                return curr;
+            }
+            curr = cmp < 0 ? right[curr] : left[curr];
+        }
+        return NIL;
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int p = NIL;
+        int curr = root;
+        int cmp = 0;
+        while (curr != NIL) {
+            p = curr;
+            cmp = compare(value, valueAt(curr));
+            if (cmp == 0) {
+                return false;
+            }
+            curr = cmp < 0 ? left[curr] : right[curr];
+        }
+        int node = allocate(value);
+        parent[node] = p;
+        if (p == NIL) {
+            root = node;
+        } else if (cmp < 0) {
+            left[p] = node;
+        } else {
+            right[p] = node;
+        }
+        fixUpOnAdd(node);
+        size++;
+        return true;
+    }
+
+    private void fixUpOnAdd(int node) {
+        while (isRed(parent[node])) {
+            int p = parent[node];
+            int g = parent[p];
+            if (p == left[g]) {
+                int uncle = right[g];
+                if (isRed(uncle)) {
+                    setBlack(p);
+                    setBlack(uncle);
+                    setRed(g);
+                    node = g;
+                } else {
+                    if (node == right[p]) {
+                        node = p;
+                        rotateLeft(node);
+                        p = parent[node];
+                    }
+                    setBlack(p);
+                    setRed(g);
+                    rotateRight(g);
+                }
+            } else {
+                int uncle = left[g];
+                if (isRed(uncle)) {
+                    setBlack(p);
+                    setBlack(uncle);
+                    setRed(g);
+                    node = g;
+                } else {
+                    if (node == left[p]) {
+                        node = p;
+                        rotateRight(node);
+                        p = parent[node];
+                    }
+                    setBlack(p);
+                    setRed(g);
+                    rotateLeft(g);
+                }
+            }
+        }
+        setBlack(root);
+    }
+
+    private void rotateLeft(int n) {
+        int v = right[n];
+        right[n] = left[v];
+        if (left[v] != NIL) {
+            parent[left[v]] = n;
+        }
+        replaceChild(parent[n], n, v);
+        left[v] = n;
+        parent[n] = v;
+    }
+
+    private void rotateRight(int n) {
+        int v = left[n];
+        left[n] = right[v];
+        if (right[v] != NIL) {
+            parent[right[v]] = n;
+        }
+        replaceChild(parent[n], n, v);
+        right[v] = n;
+        parent[n] = v;
+    }
+
+    //ставит child на место old под p; parent[child] пишется и для nil, как в CLRS
+    private void replaceChild(int p, int old, int child) {
+        if (p == NIL) {
+            root = child;
+        } else if (old == left[p]) {
+            left[p] = child;
+        } else {
+            right[p] = child;
+        }
+        parent[child] = p;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        int node = find(value);
+        if (node == NIL) {
+            return false;
+        }
+        boolean removedRed = isRed(node);
+        int child;
+        if (left[node] == NIL) {
+            child = right[node];
+            replaceChild(parent[node], node, child);
+        } else if (right[node] == NIL) {
+            child = left[node];
+            replaceChild(parent[node], node, child);
+        } else {
+            int next = right[node];
+            while (left[next] != NIL) {
+                next = left[next];
+            }
+            //next занимает место node и перекрашивается в его цвет, удаляется цвет next
+            removedRed = isRed(next);
+            child = right[next];
+            if (parent[next] == node) {
+                parent[child] = next;
+            } else {
+                replaceChild(parent[next], next, child);
+                right[next] = right[node];
+                parent[right[next]] = next;
+            }
+            replaceChild(parent[node], node, next);
+            left[next] = left[node];
+            parent[left[next]] = next;
+            setColor(next, isRed(node));
+        }
+        if (!removedRed) {
+            fixUpOnRemove(child);
+        }
+        release(node);
+        size--;
+        return true;
+    }
+
+    private void fixUpOnRemove(int node) {
+        while (node != root && !isRed(node)) {
+            int p = parent[node];
+            if (node == left[p]) {
+                int w = right[p];
+                if (isRed(w)) {
+                    setBlack(w);
+                    setRed(p);
+                    rotateLeft(p);
+                    w = right[p];
+                }
+                if (!isRed(left[w]) && !isRed(right[w])) {
+                    setRed(w);
+                    node = p;
+                } else {
+                    if (!isRed(right[w])) {
+                        setBlack(left[w]);
+                        setRed(w);
+                        rotateRight(w);
+                        w = right[p];
+                    }
+                    setColor(w, isRed(p));
+                    setBlack(p);
+                    setBlack(right[w]);
+                    rotateLeft(p);
+                    node = root;
+                }
+            } else {
+                int w = left[p];
+                if (isRed(w)) {
+                    setBlack(w);
+                    setRed(p);
+                    rotateRight(p);
+                    w = left[p];
+                }
+                if (!isRed(right[w]) && !isRed(left[w])) {
+                    setRed(w);
+                    node = p;
+                } else {
+                    if (!isRed(left[w])) {
+                        setBlack(right[w]);
+                        setRed(w);
+                        rotateLeft(w);
+                        w = left[p];
+                    }
+                    setColor(w, isRed(p));
+                    setBlack(p);
+                    setBlack(left[w]);
+                    rotateRight(p);
+                    node = root;
+                }
+            }
+        }
+        setBlack(node);
+    }
+
+    @Override
+    public E first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return valueAt(firstNode());
+    }
+
+    @Override
+    public E last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        return valueAt(lastNode());
+    }
+
+    private int firstNode() {
+        int curr = root;
+        if (curr != NIL) {
+            while (left[curr] != NIL) {
+                curr = left[curr];
+            }
+        }
+        return curr;
+    }
+
+    private int lastNode() {
+        int curr = root;
+        if (curr != NIL) {
+            while (right[curr] != NIL) {
+                curr = right[curr];
+            }
+        }
+        return curr;
+    }
+
+    private int successor(int node) {
+        if (right[node] != NIL) {
+            node = right[node];
+            while (left[node] != NIL) {
+                node = left[node];
+            }
+            return node;
+        }
+        int p = parent[node];
+        while (p != NIL && node == right[p]) {
+            node = p;
+            p = parent[p];
+        }
+        return p;
+    }
+
+    private int predecessor(int node) {
+        if (left[node] != NIL) {
+            node = left[node];
+            while (right[node] != NIL) {
+                node = right[node];
+            }
+            return node;
+        }
+        int p = parent[node];
+        while (p != NIL && node == left[p]) {
+            node = p;
+            p = parent[p];
+        }
+        return p;
+    }
+
+    @Override
+    public E floor(E value) {
+        return valueAt(lowerNode(value, true));
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return valueAt(higherNode(value, true));
+    }
+
+    @Override
+    public E higher(E value) {
+        return valueAt(higherNode(value, false));
+    }
+
+    @Override
+    public E lower(E value) {
+        return valueAt(lowerNode(value, false));
+    }
+
+    /**
+     * @return node with the greatest value less than (or equal to, if inclusive) the given one;
+     * values[NIL] is always null
+     */
+    private int lowerNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int best = NIL;
+        int curr = root;
+        while (curr != NIL) {
+            int cmp = compare(valueAt(curr), value);
+            if (cmp == 0 && inclusive) {
+                return curr;
+            } else if (cmp < 0) {
+                best = curr;
+                curr = right[curr];
+            } else {
+                curr = left[curr];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return node with the least value greater than (or equal to, if inclusive) the given one
+     */
+    private int higherNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int best = NIL;
+        int curr = root;
+        while (curr != NIL) {
+            int cmp = compare(valueAt(curr), value);
+            if (cmp == 0 && inclusive) {
+                return curr;
+            } else if (cmp > 0) {
+                best = curr;
+                curr = left[curr];
+            } else {
+                curr = right[curr];
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public List<E> inorderTraverse() {
+        List<E> list = new ArrayList<E>(size);
+        for (E value : this) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new TreeIterator(firstNode(), null, false);
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return new TreeIterator(lastNode(), null, true);
+    }
+
+    @Override
+    public Iterator<E> range(E from, E to) {
+        if (from == null || to == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (compare(from, to) > 0) {
+            throw new IllegalArgumentException("from is greater than to: " + from + ", " + to);
+        }
+        return new TreeIterator(higherNode(from, true), to, false);
+    }
+
+    /**
+     * Walks successors (or predecessors) through parent links, O(1) extra memory.
+     */
+    private class TreeIterator implements Iterator<E> {
+        private int next;
+        //исключающая верхняя граница, null - без границы
+        private final E to;
+        private final boolean descending;
+
+        TreeIterator(int first, E to, boolean descending) {
+            this.to = to;
+            this.descending = descending;
+            this.next = bounded(first);
+        }
+
+        private int bounded(int node) {
+            return node == NIL || to != null && compare(valueAt(node), to) >= 0 ? NIL : node;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != NIL;
+        }
+
+        @Override
+        public E next() {
+            if (next == NIL) {
+                throw new NoSuchElementException();
+            }
+            E value = valueAt(next);
+            next = bounded(descending ? predecessor(next) : successor(next));
+            return value;
+        }
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    @Override
+    public String toString() {
+        return "ArenaRedBlackTree" + inorderTraverse();
+    }
+}
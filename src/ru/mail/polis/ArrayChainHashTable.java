@@ -0,0 +1,242 @@
+package ru.mail.polis;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.StringJoiner;
+
+/**
+ * Separate chaining without node objects: an element occupies a slot of the dense arrays
+ * values, hashes and next, bucket heads and chain links are slot indices. Slots of removed
+ * elements go to a free list threaded through next and are taken by the following inserts, so
+ * in steady state add and remove allocate nothing.
+ * <p>
+ * The bucket array is a power of two indexed by mask and doubles once size exceeds 3/4 of it;
+ * rehashing relinks the slots in one pass over the cached hashes, without calling hashCode()
+ * or moving the elements. The slot arrays grow 1.5x independently, when no free slot is left.
+ * Iteration is a linear scan of the slots.
+ * <p>
+ * If a comparator is supplied it defines element equality, so it must be consistent with the
+ * {@link HashStrategy} of the table.
+ */
+public class ArrayChainHashTable<E extends Comparable<E>> implements ISet<E>, Iterable<E> {
+
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int MAX_BUCKETS = 1 << 30;
+    private static final int MAX_SLOTS = Integer.MAX_VALUE - 8;
+
+    private final Comparator<E> comparator;
+    private final HashStrategy<? super E> strategy;
+    //голова цепочки бакета - номер слота, NONE - пусто
+    private int[] heads;
+    private int mask;
+    private Object[] values;
+    private int[] hashes;
+    //следующий слот цепочки или списка свободных
+    private int[] next;
+    //слоты с номером меньше used заняты элементами или лежат в списке свободных
+    private int used;
+    private int free = NONE;
+    private int size;
+
+    public ArrayChainHashTable() {
+        this(null);
+    }
+
+    public ArrayChainHashTable(Comparator<E> comparator) {
+        this(comparator, 0, HashStrategy.MURMUR);
+    }
+
+    /**
+     * @param expectedSize number of elements the table can hold without growing
+     * @param strategy     hash function of the elements
+     */
+    public ArrayChainHashTable(Comparator<E> comparator, int expectedSize, HashStrategy<? super E> strategy) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expected size is negative: " + expectedSize);
+        }
+        if (strategy == null) {
+            throw new NullPointerException("strategy is null");
+        }
+        this.comparator = comparator;
+        this.strategy = strategy;
+        int buckets = INITIAL_CAPACITY;
+        while (threshold(buckets) < expectedSize && buckets < MAX_BUCKETS) {
+            buckets <<= 1;
+        }
+        allocateBuckets(buckets);
+        int slots = Math.max(INITIAL_CAPACITY, expectedSize);
+        values = new Object[slots];
+        hashes = new int[slots];
+        next = new int[slots];
+    }
+
+    private static int threshold(int buckets) {
+        return buckets - (buckets >>> 2);
+    }
+
+    private void allocateBuckets(int buckets) {
+        heads = new int[buckets];
+        Arrays.fill(heads, NONE);
+        mask = buckets - 1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = strategy.hash(value);
+        for (int slot = heads[h & mask]; slot != NONE; slot = next[slot]) {
+            if (hashes[slot] == h && compare(value, elementAt(slot)) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = strategy.hash(value);
+        int idx = h & mask;
+        for (int slot = heads[idx]; slot != NONE; slot = next[slot]) {
+            if (hashes[slot] == h && compare(value, elementAt(slot)) == 0) {
+                return false;
+            }
+        }
+        int slot = allocateSlot();
+        values[slot] = value;
+        hashes[slot] = h;
+        //в голову цепочки
+        next[slot] = heads[idx];
+        heads[idx] = slot;
+        if (++size > threshold(heads.length) && heads.length < MAX_BUCKETS) {
+            rehash(heads.length << 1);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = strategy.hash(value);
+        int idx = h & mask;
+        int prev = NONE;
+        for (int slot = heads[idx]; slot != NONE; prev = slot, slot = next[slot]) {
+            if (hashes[slot] == h && compare(value, elementAt(slot)) == 0) {
+                if (prev == NONE) {
+                    heads[idx] = next[slot];
+                } else {
+                    next[prev] = next[slot];
+                }
+                values[slot] = null;
+                next[slot] = free;
+                free = slot;
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int allocateSlot() {
+        if (free != NONE) {
+            int slot = free;
+            free = next[slot];
+            return slot;
+        }
+        if (used == values.length) {
+            if (used == MAX_SLOTS) {
+                throw new IllegalStateException("table is full: " + size);
+            }
+            int slots = (int) Math.min(MAX_SLOTS, used + (used >> 1) + 1L);
+            values = Arrays.copyOf(values, slots);
+            hashes = Arrays.copyOf(hashes, slots);
+            next = Arrays.copyOf(next, slots);
+        }
+        return used++;
+    }
+
+    /**
+     * Relinks all the elements into a new bucket array; free slots keep their list.
+     */
+    private void rehash(int buckets) {
+        allocateBuckets(buckets);
+        for (int slot = 0; slot < used; slot++) {
+            if (values[slot] != null) {
+                int idx = hashes[slot] & mask;
+                next[slot] = heads[idx];
+                heads[idx] = slot;
+            }
+        }
+    }
+
+    /**
+     * Elements in slot order. The table must not be modified while the iterator is in use.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new SlotIterator();
+    }
+
+    private class SlotIterator implements Iterator<E> {
+        private int slot = advance(0);
+
+        private int advance(int from) {
+            while (from < used && values[from] == null) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return slot < used;
+        }
+
+        @Override
+        public E next() {
+            if (slot >= used) {
+                throw new NoSuchElementException();
+            }
+            E value = elementAt(slot);
+            slot = advance(slot + 1);
+            return value;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elementAt(int slot) {
+        return (E) values[slot];
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(", ", "ArrayChainHashTable[", "]");
+        for (E value : this) {
+            joiner.add(String.valueOf(value));
+        }
+        return joiner.toString();
+    }
+}
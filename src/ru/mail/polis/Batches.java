@@ -0,0 +1,89 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Argument checks and sorting shared by the batch operations of {@link ISet}.
+ */
+final class Batches {
+
+    private Batches() {
+    }
+
+    /**
+     * @throws NullPointerException if values or any of its elements is null
+     */
+    static void checkValues(Object[] values) {
+        if (values == null) {
+            throw new NullPointerException("values is null");
+        }
+        for (Object value : values) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+        }
+    }
+
+    /**
+     * @throws NullPointerException     if keys, out or any of the keys is null
+     * @throws IllegalArgumentException if out is shorter than keys
+     */
+    static void checkBatch(Object[] keys, boolean[] out) {
+        checkValues(keys);
+        if (out == null) {
+            throw new NullPointerException("out is null");
+        }
+        if (out.length < keys.length) {
+            throw new IllegalArgumentException("out is shorter than keys: " + out.length + " < " + keys.length);
+        }
+    }
+
+    /**
+     * @return indices of keys in ascending order of the keys, equal keys are adjacent
+     */
+    static <E> int[] sortedOrder(E[] keys, Comparator<E> comparator) {
+        int[] order = new int[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        if (order.length > 1) {
+            mergeSort(keys, comparator, order, order.clone(), 0, order.length);
+        }
+        return order;
+    }
+
+    //сортирует src[lo, hi) в dst, оба массива изначально совпадают на этом отрезке
+    private static <E> void mergeSort(E[] keys, Comparator<E> comparator, int[] dst, int[] src, int lo, int hi) {
+        if (hi - lo < 2) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        mergeSort(keys, comparator, src, dst, lo, mid);
+        mergeSort(keys, comparator, src, dst, mid, hi);
+        for (int i = lo, l = lo, r = mid; i < hi; i++) {
+            if (r == hi || l < mid && comparator.compare(keys[src[l]], keys[src[r]]) <= 0) {
+                dst[i] = src[l++];
+            } else {
+                dst[i] = src[r++];
+            }
+        }
+    }
+
+    /**
+     * @return the values in ascending order without duplicates
+     */
+    static <E> List<E> sortedDistinct(E[] values, Comparator<E> comparator) {
+        E[] sorted = values.clone();
+        Arrays.sort(sorted, comparator);
+        List<E> distinct = new ArrayList<>(sorted.length);
+        for (E value : sorted) {
+            if (distinct.isEmpty() || comparator.compare(distinct.get(distinct.size() - 1), value) != 0) {
+                distinct.add(value);
+            }
+        }
+        return distinct;
+    }
+}
@@ -1,7 +1,10 @@
 package ru.mail.polis;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
@@ -33,16 +36,90 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
         }
     }
 
+    /**
+     * Weight balance of the scapegoat mode: no child of a rebuilt subtree of size n holds more
+     * than ALPHA * n nodes, and the depth stays within log(n) / log(1 / ALPHA).
+     */
+    private static final double ALPHA = 2.0 / 3;
+    private static final double LOG_INV_ALPHA = Math.log(1 / ALPHA);
+
     private Node root;
     private int size;
     private final Comparator<E> comparator;
+    private final boolean balanced;
+    //наибольший size с последнего перестроения всего дерева (только в scapegoat-режиме)
+    private int maxSize;
 
     public BinarySearchTree() {
-        this.comparator = null;
+        this(null);
     }
 
     public BinarySearchTree(Comparator<E> comparator) {
+        this(comparator, false);
+    }
+
+    /**
+     * @param balanced if true, the tree is kept balanced as a scapegoat tree (Galperin, Rivest,
+     *                 1993): an insert deeper than log(n) / log(1 / ALPHA) rebuilds the subtree
+     *                 of the lowest ancestor that is too unbalanced, and removals rebuild the whole
+     *                 tree once the size has dropped below ALPHA times its maximum. Nodes stay
+     *                 the same (no parent, no balance data), depth is O(log n) and updates cost
+     *                 O(log n) amortised, also for sorted input.
+     */
+    public BinarySearchTree(Comparator<E> comparator, boolean balanced) {
         this.comparator = comparator;
+        this.balanced = balanced;
+    }
+
+    /**
+     * Builds a perfectly balanced tree from values in strictly ascending order in O(n),
+     * without any comparisons beyond the order check and without rebalancing.
+     *
+     * @throws IllegalArgumentException if values are not strictly ascending
+     */
+    public static <E extends Comparable<E>> BinarySearchTree<E> fromSorted(List<E> values) {
+        return fromSorted(values, null);
+    }
+
+    /**
+     * @see #fromSorted(List)
+     */
+    public static <E extends Comparable<E>> BinarySearchTree<E> fromSorted(List<E> values, Comparator<E> comparator) {
+        BinarySearchTree<E> tree = new BinarySearchTree<>(comparator);
+        E prev = null;
+        for (E value : values) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            if (prev != null && tree.compare(prev, value) >= 0) {
+                throw new IllegalArgumentException("values are not strictly ascending: " + prev + ", " + value);
+            }
+            prev = value;
+        }
+        tree.buildFromSorted(values.iterator(), values.size());
+        return tree;
+    }
+
+    /**
+     * Replaces the content of this tree with size values taken from the iterator, which
+     * must be strictly ascending.
+     */
+    void buildFromSorted(Iterator<? extends E> values, int size) {
+        root = buildFromSorted(values, 0, size - 1);
+        this.size = size;
+        this.maxSize = size;
+    }
+
+    private Node buildFromSorted(Iterator<? extends E> values, int lo, int hi) {
+        if (lo > hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node left = buildFromSorted(values, lo, mid - 1);
+        Node node = new Node(values.next());
+        node.left = left;
+        node.right = buildFromSorted(values, mid + 1, hi);
+        return node;
     }
 
     @Override
@@ -69,6 +146,160 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
         return curr.value;
     }
 
+    @Override
+    public E floor(E value) {
+        Node node = lowerNode(value, true);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public E ceiling(E value) {
+        Node node = higherNode(value, true);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public E higher(E value) {
+        Node node = higherNode(value, false);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public E lower(E value) {
+        Node node = lowerNode(value, false);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * @return node with the greatest value less than (or equal to, if inclusive) the given one
+     */
+    private Node lowerNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node best = null;
+        Node curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp == 0 && inclusive) {
+                return curr;
+            } else if (cmp < 0) {
+                best = curr;
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return node with the least value greater than (or equal to, if inclusive) the given one
+     */
+    private Node higherNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node best = null;
+        Node curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp == 0 && inclusive) {
+                return curr;
+            } else if (cmp > 0) {
+                best = curr;
+                curr = curr.left;
+            } else {
+                curr = curr.right;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public Iterator<E> range(E from, E to) {
+        if (from == null || to == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (compare(from, to) > 0) {
+            throw new IllegalArgumentException("from is greater than to: " + from + ", " + to);
+        }
+        return new TreeIterator(from, to);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new TreeIterator(false);
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return new TreeIterator(true);
+    }
+
+    /**
+     * There are no parent links, so the iterator keeps the path of nodes whose subtree
+     * is being walked on an explicit stack. Unlike recursion (or Morris threading, which
+     * rewires the tree until the walk completes) this is safe for arbitrarily deep trees
+     * and for iterations abandoned half way.
+     */
+    private class TreeIterator implements Iterator<E> {
+        private final Deque<Node> stack = new ArrayDeque<>();
+        //исключающая верхняя граница, null - без границы
+        private final E to;
+        private final boolean descending;
+
+        TreeIterator(boolean descending) {
+            this.to = null;
+            this.descending = descending;
+            pushSpine(root);
+        }
+
+        TreeIterator(E from, E to) {
+            this.to = to;
+            this.descending = false;
+            Node curr = root;
+            while (curr != null) {
+                if (compare(curr.value, from) >= 0) {
+                    stack.push(curr);
+                    curr = curr.left;
+                } else {
+                    curr = curr.right;
+                }
+            }
+            checkBound();
+        }
+
+        private void pushSpine(Node curr) {
+            while (curr != null) {
+                stack.push(curr);
+                curr = descending ? curr.right : curr.left;
+            }
+        }
+
+        private void checkBound() {
+            if (to != null && !stack.isEmpty() && compare(stack.peek().value, to) >= 0) {
+                stack.clear();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public E next() {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node node = stack.pop();
+            pushSpine(descending ? node.left : node.right);
+            checkBound();
+            return node.value;
+        }
+    }
+
     @Override
     public int size() {
         return size;
@@ -100,16 +331,52 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
         return false;
     }
 
+    /**
+     * Looks the keys up in ascending order, so that consecutive searches share a prefix of
+     * their paths: the nodes where the previous search turned left bound the subtree holding
+     * the next key, and the search resumes from the deepest of them that is still greater
+     * than the key instead of from the root.
+     */
+    @Override
+    public void containsBatch(E[] keys, boolean[] out) {
+        Batches.checkBatch(keys, out);
+        //узлы, в которых предыдущий поиск свернул налево, самый глубокий - на вершине
+        Deque<Node> path = new ArrayDeque<>();
+        for (int i : Batches.sortedOrder(keys, this::compare)) {
+            E key = keys[i];
+            while (!path.isEmpty() && compare(path.peek().value, key) < 0) {
+                path.pop();
+            }
+            boolean found = !path.isEmpty() && compare(path.peek().value, key) == 0;
+            Node curr = path.isEmpty() ? root : path.peek().left;
+            while (!found && curr != null) {
+                int cmp = compare(curr.value, key);
+                if (cmp == 0) {
+                    found = true;
+                } else if (cmp < 0) {
+                    curr = curr.right;
+                } else {
+                    path.push(curr);
+                    curr = curr.left;
+                }
+            }
+            out[i] = found;
+        }
+    }
+
     @Override
     public boolean add(E value) {
         if (value == null) {
             throw new NullPointerException("value is null");
         }
+        //глубина нового узла
+        int depth = 0;
         if (root == null) {
             root = new Node(value);
         } else {
             Node curr = root;
             while (true) {
+                depth++;
                 int cmp = compare(curr.value, value);
                 if (cmp == 0) {
                     return false;
@@ -131,9 +398,99 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
             }
         }
         size++;
+        if (balanced) {
+            maxSize = Math.max(maxSize, size);
+            if (depth > Math.log(maxSize) / LOG_INV_ALPHA) {
+                rebuildScapegoat(value);
+            }
+        }
         return true;
     }
 
+    /**
+     * Finds the lowest ancestor of the node just inserted with value whose child on the path
+     * holds more than ALPHA of its nodes, and rebuilds its subtree perfectly balanced. Such an
+     * ancestor exists whenever the node is deeper than log(size) / log(1 / ALPHA).
+     */
+    private void rebuildScapegoat(E value) {
+        List<Node> path = new ArrayList<>();
+        for (Node curr = root; ; ) {
+            path.add(curr);
+            int cmp = compare(curr.value, value);
+            if (cmp == 0) {
+                break;
+            }
+            curr = cmp < 0 ? curr.right : curr.left;
+        }
+        int childSize = 1;
+        for (int i = path.size() - 2; i >= 0; i--) {
+            Node node = path.get(i);
+            Node child = path.get(i + 1);
+            int nodeSize = 1 + childSize + sizeOf(child == node.left ? node.right : node.left);
+            if (childSize > ALPHA * nodeSize) {
+                Node rebuilt = rebuild(node, nodeSize);
+                if (i == 0) {
+                    root = rebuilt;
+                } else if (path.get(i - 1).left == node) {
+                    path.get(i - 1).left = rebuilt;
+                } else {
+                    path.get(i - 1).right = rebuilt;
+                }
+                return;
+            }
+            childSize = nodeSize;
+        }
+    }
+
+    //размеры поддеревьев не хранятся, поэтому считаются обходом
+    private int sizeOf(Node node) {
+        int count = 0;
+        Deque<Node> stack = new ArrayDeque<>();
+        if (node != null) {
+            stack.push(node);
+        }
+        while (!stack.isEmpty()) {
+            Node curr = stack.pop();
+            count++;
+            if (curr.left != null) {
+                stack.push(curr.left);
+            }
+            if (curr.right != null) {
+                stack.push(curr.right);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Relinks the size nodes of the subtree of node into a perfectly balanced tree, O(size).
+     */
+    private Node rebuild(Node node, int size) {
+        List<Node> nodes = new ArrayList<>(size);
+        Deque<Node> stack = new ArrayDeque<>();
+        Node curr = node;
+        while (curr != null || !stack.isEmpty()) {
+            for (; curr != null; curr = curr.left) {
+                stack.push(curr);
+            }
+            curr = stack.pop();
+            nodes.add(curr);
+            curr = curr.right;
+        }
+        return link(nodes, 0, size - 1);
+    }
+
+    private Node link(List<Node> nodes, int lo, int hi) {
+        if (lo > hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node node = nodes.get(mid);
+        node.left = link(nodes, lo, mid - 1);
+        node.right = link(nodes, mid + 1, hi);
+        return node;
+    }
+
     @Override
     public boolean remove(E value) {
         if (value == null) {
@@ -182,6 +539,10 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
             }
         }
         size--;
+        if (balanced && size < ALPHA * maxSize) {
+            root = rebuild(root, size);
+            maxSize = size;
+        }
         return true;
     }
 
@@ -203,17 +564,10 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
     @Override
     public List<E> inorderTraverse() {
         List<E> list = new ArrayList<E>(size);
-        inorderTraverse(root, list);
-        return list;
-    }
-
-    private void inorderTraverse(Node curr, List<E> list) {
-        if (curr == null) {
-            return;
+        for (E value : this) {
+            list.add(value);
         }
-        inorderTraverse(curr.left, list);
-        list.add(curr.value);
-        inorderTraverse(curr.right, list);
+        return list;
     }
 
     @Override
@@ -0,0 +1,239 @@
+package ru.mail.polis;
+
+import java.util.function.Consumer;
+
+/**
+ * Set with a blocked Bloom filter in front of another one: contains answers false without
+ * touching the wrapped set for every element the filter rules out, and asks the set only
+ * about the rest, a false positive rate of them included. Miss-heavy lookups then cost a
+ * hash and one cache line instead of a search.
+ * <p>
+ * Blocked filter (Putze, Sanders, Singler, "Cache-, hash- and space-efficient Bloom filters",
+ * 2007): the hash of an element picks one 512-bit block, a cache line, and all k bits of the
+ * element are set within it. The number of blocks is rounded up to a power of two, which
+ * makes up for the slightly worse rate of blocking compared with a classic filter.
+ * <p>
+ * A Bloom filter cannot forget: removed elements leave their bits set and the rate grows.
+ * The filter is rebuilt from the set, sized for its current size, once removals since the last
+ * rebuild reach half of the size the filter was built for, so a drained set gets a small filter
+ * and rebuilds stay amortised. It is doubled when the set outgrows that size. Rebuilding
+ * needs to enumerate the set, which works for sorted sets, {@link ChainHashTable},
+ * {@link OpenHashTable} and {@link ArrayChainHashTable}; other sets keep the filter as is.
+ * <p>
+ * The filter places elements by a {@link HashStrategy}, which must be consistent with the
+ * equality of the wrapped set: elements the set considers equal must get equal hashes. For a
+ * set with natural order and hashCode() consistent with compareTo() any strategy works
+ * ({@link HashStrategy#MURMUR} by default); a set with a comparator, such as a tree ordered by
+ * String.CASE_INSENSITIVE_ORDER, needs a strategy that hashes what the comparator looks at,
+ * otherwise contains gives false negatives.
+ * <p>
+ * The wrapped set must not be modified other than through this wrapper. The wrapper is not
+ * thread-safe even over a concurrent set: a rebuild replaces the filter under readers.
+ */
+public class BloomFilteredSet<E extends Comparable<E>> implements ISet<E> {
+
+    private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    private static final int MIN_EXPECTED_SIZE = 1024;
+    private static final int BLOCK_BITS = 512;
+    //блок - 8 long, одна кэш-линия
+    private static final int BLOCK_WORDS = BLOCK_BITS / Long.SIZE;
+    private static final int MAX_BLOCKS = 1 << 24;
+
+    private final ISet<E> set;
+    private final HashStrategy<? super E> strategy;
+    private final double falsePositiveRate;
+    //число элементов, на которое рассчитан фильтр
+    private int capacity;
+    private long[] words;
+    private int blockMask;
+    private int hashes;
+    //элементы, удалённые из множества с последней перестройки
+    private int removed;
+
+    public BloomFilteredSet(ISet<E> set) {
+        this(set, HashStrategy.MURMUR);
+    }
+
+    /**
+     * @param strategy hash function consistent with the equality of the set
+     */
+    public BloomFilteredSet(ISet<E> set, HashStrategy<? super E> strategy) {
+        this(set, DEFAULT_FALSE_POSITIVE_RATE, set.size(), strategy);
+    }
+
+    /**
+     * @param falsePositiveRate share of absent elements the filter lets through, in (0, 1)
+     * @param expectedSize      number of elements the filter is sized for
+     * @throws IllegalArgumentException if the set is not empty and cannot be enumerated
+     */
+    public BloomFilteredSet(ISet<E> set, double falsePositiveRate, int expectedSize) {
+        this(set, falsePositiveRate, expectedSize, HashStrategy.MURMUR);
+    }
+
+    /**
+     * @param falsePositiveRate share of absent elements the filter lets through, in (0, 1)
+     * @param expectedSize      number of elements the filter is sized for
+     * @param strategy          hash function consistent with the equality of the set
+     * @throws IllegalArgumentException if the set is not empty and cannot be enumerated
+     */
+    public BloomFilteredSet(ISet<E> set, double falsePositiveRate, int expectedSize,
+                            HashStrategy<? super E> strategy) {
+        if (set == null) {
+            throw new NullPointerException("set is null");
+        }
+        if (strategy == null) {
+            throw new NullPointerException("strategy is null");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("false positive rate must be in (0, 1): " + falsePositiveRate);
+        }
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expected size is negative: " + expectedSize);
+        }
+        this.set = set;
+        this.strategy = strategy;
+        this.falsePositiveRate = falsePositiveRate;
+        if (!set.isEmpty() && !canEnumerate(set)) {
+            throw new IllegalArgumentException("cannot enumerate the elements of " + set.getClass().getName());
+        }
+        build(Math.max(expectedSize, set.size()));
+    }
+
+    /**
+     * Sizes the filter for the given number of elements and fills it from the set.
+     */
+    private void build(int expectedSize) {
+        capacity = Math.max(MIN_EXPECTED_SIZE, expectedSize);
+        //m = -n ln p / ln^2 2 бит, k = m / n ln 2 хешей
+        double bits = -capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        hashes = Math.max(1, (int) Math.round(bits / capacity * Math.log(2)));
+        long blocks = Math.min(MAX_BLOCKS, Long.highestOneBit((long) Math.ceil(bits / BLOCK_BITS) * 2 - 1));
+        words = new long[(int) blocks * BLOCK_WORDS];
+        blockMask = (int) blocks - 1;
+        removed = 0;
+        forEach(set, this::put);
+    }
+
+    /**
+     * Rebuilds the filter from the set for its current size, dropping the bits of removed
+     * elements.
+     *
+     * @throws UnsupportedOperationException if the set cannot be enumerated
+     */
+    public void rebuild() {
+        if (!canEnumerate(set)) {
+            throw new UnsupportedOperationException("cannot enumerate the elements of " + set.getClass().getName());
+        }
+        build(set.size());
+    }
+
+    /**
+     * @return the wrapped set, to be read but not modified
+     */
+    public ISet<E> unwrap() {
+        return set;
+    }
+
+    /**
+     * @return false if value is definitely absent, true if it may be present
+     */
+    public boolean mightContain(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        long h = mix(strategy.hash(value));
+        int base = ((int) h & blockMask) * BLOCK_WORDS;
+        int hi = (int) (h >>> 32);
+        //позиции a + i * b по модулю 512 различны при нечётном b
+        int a = hi & (BLOCK_BITS - 1);
+        int b = (hi >>> 9) | 1;
+        for (int i = 0; i < hashes; i++, a += b) {
+            int bit = a & (BLOCK_BITS - 1);
+            if ((words[base + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void put(E value) {
+        long h = mix(strategy.hash(value));
+        int base = ((int) h & blockMask) * BLOCK_WORDS;
+        int hi = (int) (h >>> 32);
+        int a = hi & (BLOCK_BITS - 1);
+        int b = (hi >>> 9) | 1;
+        for (int i = 0; i < hashes; i++, a += b) {
+            int bit = a & (BLOCK_BITS - 1);
+            words[base + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    //финализатор SplittableRandom: 32 бита хеша разносятся по всем 64
+    private static long mix(int hash) {
+        long z = hash * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public int size() {
+        return set.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return set.isEmpty();
+    }
+
+    @Override
+    public boolean contains(E value) {
+        return mightContain(value) && set.contains(value);
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (!set.add(value)) {
+            return false;
+        }
+        put(value);
+        if (set.size() > capacity && capacity < Integer.MAX_VALUE / 2 && canEnumerate(set)) {
+            build(capacity * 2);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (!set.remove(value)) {
+            return false;
+        }
+        //перестройка стоит O(capacity) и оплачена capacity / 2 удалениями
+        if (++removed * 2L >= capacity && canEnumerate(set)) {
+            build(set.size());
+        }
+        return true;
+    }
+
+    private static boolean canEnumerate(ISet<?> set) {
+        return set instanceof Iterable || set instanceof ChainHashTable || set instanceof OpenHashTable;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Comparable<E>> void forEach(ISet<E> set, Consumer<E> action) {
+        if (set instanceof Iterable) {
+            for (E value : (Iterable<E>) set) {
+                action.accept(value);
+            }
+        } else if (set instanceof ChainHashTable) {
+            ((ChainHashTable<E>) set).forEachValue(action);
+        } else if (set instanceof OpenHashTable) {
+            ((OpenHashTable<E>) set).forEachValue(action);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Bloom" + set;
+    }
+}
@@ -3,6 +3,7 @@ package ru.mail.polis;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
 
@@ -28,9 +29,32 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
 
     private final int INITIAL_CAPACITY = 8;
 //    private final float LOAD_FACTOR = 0.5f;
+    /**
+     * Number of old buckets moved to the new table per add/remove while an incremental resize
+     * is in progress. The table grows 2x at size = capacity / 2, so at least 2 per operation
+     * are needed to finish before the next resize; 4 leaves slack for removals.
+     */
+    private static final int TRANSFER_BUCKETS = 4;
+    /**
+     * A bucket whose chain grows longer than TREEIFY_THRESHOLD is turned into an {@link AVLTree}
+     * ordered by compare(), and back into a chain once it shrinks to UNTREEIFY_THRESHOLD.
+     * This bounds lookups to O(log n) even when many keys share a hash code.
+     */
+    private static final int TREEIFY_THRESHOLD = 8;
+    private static final int UNTREEIFY_THRESHOLD = 6;
+    //число ключей containsBatch, бакеты которых читаются подряд
+    private static final int BATCH_GROUP = 16;
 
     private Comparator<E> comparator;
+    //null - метрики не собираются
+    private SetMetrics metrics;
+    private final boolean incrementalResize;
+    private final HashStrategy<? super E> strategy;
     private Object[] table;
+    //таблица, из которой идёт перенос при инкрементальном resize (иначе null)
+    private Object[] oldTable;
+    //бакеты oldTable с индексом меньше transferIndex уже перенесены
+    private int transferIndex;
     private int size;
 
     public ChainHashTable() {
@@ -38,8 +62,73 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
     }
 
     public ChainHashTable(Comparator<E> comparator) {
+        this(comparator, false);
+    }
+
+    /**
+     * @param incrementalResize if true, growing the table keeps the old one alive and migrates
+     *                          a bounded number of buckets per add/remove instead of rehashing
+     *                          everything inside a single call
+     */
+    public ChainHashTable(Comparator<E> comparator, boolean incrementalResize) {
+        this(comparator, incrementalResize, 0);
+    }
+
+    /**
+     * @param expectedSize number of elements the table can hold without resizing
+     */
+    public ChainHashTable(Comparator<E> comparator, boolean incrementalResize, int expectedSize) {
+        this(comparator, incrementalResize, expectedSize, HashStrategy.MURMUR);
+    }
+
+    /**
+     * @param strategy hash function of the elements, see {@link CollisionReport} for choosing
+     *                 one; {@link HashStrategy#MURMUR} by default
+     */
+    public ChainHashTable(Comparator<E> comparator, boolean incrementalResize, int expectedSize,
+                          HashStrategy<? super E> strategy) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expected size is negative: " + expectedSize);
+        }
+        if (strategy == null) {
+            throw new NullPointerException("strategy is null");
+        }
         this.comparator = comparator;
-        this.table = new Object[INITIAL_CAPACITY];
+        this.incrementalResize = incrementalResize;
+        this.strategy = strategy;
+        int capacity = INITIAL_CAPACITY;
+        //resize() срабатывает при size * 2 >= length
+        while (capacity <= expectedSize * 2L && capacity < 1 << 30) {
+            capacity <<= 1;
+        }
+        this.table = new Object[capacity];
+    }
+
+    /**
+     * Starts (or, with null, stops) collecting metrics of this table.
+     */
+    public void setMetrics(SetMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the attached metrics, null if none
+     */
+    public SetMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void beginOperation() {
+        if (metrics != null) {
+            metrics.beginOperation();
+        }
+    }
+
+    //length - число просмотренных узлов цепочки
+    private void probed(int length) {
+        if (metrics != null) {
+            metrics.probed(length);
+        }
     }
 
     @Override
@@ -54,28 +143,85 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
 
     @Override
     public boolean contains(E value) {
-        Node curr = getNode(hash(value));
-        while (curr != null && !curr.equals(value)) {
+        beginOperation();
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = strategy.hash(value);
+        Object[] t = tableFor(h);
+        return bucketContains(t[indexFor(h, t.length)], value);
+    }
+
+    /**
+     * Looks the keys up in groups of BATCH_GROUP: first the buckets of all the keys of a group
+     * are loaded, then their chains are walked. The loads of a group do not depend on each
+     * other, so their cache misses overlap instead of being paid one after another.
+     */
+    @Override
+    public void containsBatch(E[] keys, boolean[] out) {
+        beginOperation();
+        Batches.checkBatch(keys, out);
+        Object[] buckets = new Object[BATCH_GROUP];
+        for (int from = 0; from < keys.length; from += BATCH_GROUP) {
+            int to = Math.min(keys.length, from + BATCH_GROUP);
+            for (int i = from; i < to; i++) {
+                int h = strategy.hash(keys[i]);
+                Object[] t = tableFor(h);
+                buckets[i - from] = t[indexFor(h, t.length)];
+            }
+            for (int i = from; i < to; i++) {
+                out[i] = bucketContains(buckets[i - from], keys[i]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean bucketContains(Object bucket, E value) {
+        if (bucket instanceof AVLTree) {
+            return getTree(bucket).contains(value);
+        }
+        Node curr = (Node) bucket;
+        int length = 0;
+        while (curr != null && compare(value, curr.value) != 0) {
             curr = curr.next;
+            length++;
         }
+        probed(curr == null ? length : length + 1);
         //Вышли по второму условию
         return curr != null;
     }
 
     @Override
     public boolean add(E value) {
-        int idx = hash(value);
-        if (table[idx] == null) {
-            table[idx] = new Node(value);
+        beginOperation();
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        transferStep();
+        int h = strategy.hash(value);
+        Object[] t = tableFor(h);
+        int idx = indexFor(h, t.length);
+        if (t[idx] == null) {
+            t[idx] = new Node(value);
+        } else if (t[idx] instanceof AVLTree) {
+            if (!getTree(t[idx]).add(value)) {
+                return false;
+            }
         } else {
-            Node curr = getNode(idx);
+            Node curr = getNode(t, idx);
+            int binCount = 1;
             while (curr.next != null && compare(value, curr.value) != 0) {
                 curr = curr.next;
+                binCount++;
             }
+            probed(binCount);
             if (compare(value, curr.value) == 0) {
                 return false;
             }
             curr.next = new Node(value);
+            if (binCount >= TREEIFY_THRESHOLD) {
+                t[idx] = treeify(getNode(t, idx));
+            }
         }
         size++;
         resize();
@@ -84,16 +230,37 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
 
     @Override
     public boolean remove(E value) {
+        beginOperation();
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        transferStep();
+        int h = strategy.hash(value);
+        Object[] t = tableFor(h);
+        int idx = indexFor(h, t.length);
+        if (t[idx] instanceof AVLTree) {
+            AVLTree<E> tree = getTree(t[idx]);
+            if (!tree.remove(value)) {
+                return false;
+            }
+            if (tree.size() <= UNTREEIFY_THRESHOLD) {
+                t[idx] = untreeify(tree);
+            }
+            size--;
+            return true;
+        }
         Node prev = null;
-        int idx = hash(value);
-        Node curr = getNode(idx);
+        Node curr = getNode(t, idx);
+        int length = 0;
         while (curr != null && compare(value, curr.value) != 0) {
             prev = curr;
             curr = curr.next;
+            length++;
         }
+        probed(curr == null ? length : length + 1);
         if (curr != null) {
             if (prev == null) { //head
-                table[idx] = getNode(idx).next;
+                t[idx] = curr.next;
             } else {
                 prev.next = curr.next;
             }
@@ -105,48 +272,205 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
         return false;
     }
 
-    private int hash(E value) {
-        return Math.abs(value.hashCode()) % table.length;
+    /**
+     * Passes every element to the action in bucket order.
+     */
+    void forEachValue(Consumer<? super E> action) {
+        if (oldTable != null) {
+            forEachValue(oldTable, transferIndex, action);
+        }
+        forEachValue(table, 0, action);
+    }
+
+    private void forEachValue(Object[] t, int from, Consumer<? super E> action) {
+        for (int i = from; i < t.length; i++) {
+            if (t[i] instanceof AVLTree) {
+                for (E value : getTree(t[i])) {
+                    action.accept(value);
+                }
+            } else {
+                for (Node curr = getNode(t, i); curr != null; curr = curr.next) {
+                    action.accept(curr.value);
+                }
+            }
+        }
+    }
+
+    //длина таблицы - всегда степень двойки
+    private static int indexFor(int hash, int length) {
+        return hash & (length - 1);
+    }
+
+    /**
+     * While a resize is in progress an element lives in the old table until its bucket
+     * there has been transferred, so every lookup goes to exactly one of the two tables.
+     */
+    private Object[] tableFor(int hash) {
+        if (oldTable != null && indexFor(hash, oldTable.length) >= transferIndex) {
+            return oldTable;
+        }
+        return table;
     }
 
     @SuppressWarnings("unchecked")
-    private Node getNode(int idx) {
-        return (Node) table[idx];
+    private Node getNode(Object[] t, int idx) {
+        return (Node) t[idx];
+    }
+
+    @SuppressWarnings("unchecked")
+    private AVLTree<E> getTree(Object bucket) {
+        return (AVLTree<E>) bucket;
+    }
+
+    private AVLTree<E> treeify(Node head) {
+        AVLTree<E> tree = new AVLTree<>(comparator);
+        Node curr = head;
+        while (curr != null) {
+            Node next = curr.next;
+            tree.add(curr.value);
+            curr.value = null;
+            curr.next = null;
+            curr = next;
+        }
+        return tree;
+    }
+
+    private Node untreeify(AVLTree<E> tree) {
+        Node head = null;
+        List<E> values = tree.inorderTraverse();
+        for (int i = values.size() - 1; i >= 0; i--) {
+            Node node = new Node(values.get(i));
+            node.next = head;
+            head = node;
+        }
+        return head;
+    }
+
+    private void treeifyIfNeeded(int idx) {
+        if (table[idx] instanceof AVLTree) {
+            return;
+        }
+        int binCount = 0;
+        for (Node curr = getNode(table, idx); curr != null; curr = curr.next) {
+            binCount++;
+        }
+        if (binCount > TREEIFY_THRESHOLD) {
+            table[idx] = treeify(getNode(table, idx));
+        }
     }
 
     private int compare(E v1, E v2) {
+        if (metrics != null) {
+            metrics.compared();
+        }
         return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
     }
 
-    @SuppressWarnings("unchecked")
     private void resize() {
         if (size * 2 < table.length) {
             return;
         }
-        Object[] old = this.table;
-        size = 0;
+        if (oldTable != null) {
+            //предыдущий перенос не успел закончиться
+            transfer(oldTable.length);
+        }
+        if (metrics != null) {
+            metrics.beginResize();
+        }
+        oldTable = table;
         table = new Object[table.length << 1];
-        for (int i = 0; i < old.length; i++) {
-            Node node = (Node) old[i];
-            if (node != null) {
-                Node curr = node;
+        transferIndex = 0;
+        if (!incrementalResize) {
+            transfer(oldTable.length);
+        }
+        if (metrics != null) {
+            metrics.endResize(this, table.length >> 1, table.length);
+        }
+    }
+
+    private void transferStep() {
+        if (oldTable != null) {
+            transfer(TRANSFER_BUCKETS);
+        }
+    }
+
+    /**
+     * Moves up to count buckets of oldTable into table. The table only ever doubles, so old
+     * bucket i is split between new buckets i and i + oldTable.length, which are empty until
+     * it is transferred. Chain nodes are relinked (inserted in head, all values are unique)
+     * without allocation. A tree bucket of k elements is split in order into two sorted
+     * halves, each built in O(k) as a balanced tree, or as a chain if it is short; that
+     * allocates O(k) nodes, so count bounds the number of buckets moved, not the pause of a
+     * step that meets a large collision bucket.
+     */
+    private void transfer(int count) {
+        int end = Math.min(oldTable.length, transferIndex + count);
+        for (; transferIndex < end; transferIndex++) {
+            if (oldTable[transferIndex] == null) {
+                continue;
+            }
+            if (oldTable[transferIndex] instanceof AVLTree) {
+                splitTree(getTree(oldTable[transferIndex]));
+            } else {
+                Node curr = getNode(oldTable, transferIndex);
                 while (curr != null) {
                     Node next = curr.next;
-                    //FIXME: insert value in head (all unique)
-                    add(curr.value);
-                    curr.next = null;
-                    curr.value = null;
+                    int idx = indexFor(strategy.hash(curr.value), table.length);
+                    curr.next = getNode(table, idx);
+                    table[idx] = curr;
                     curr = next;
                 }
-                old[i] = null;
+                treeifyIfNeeded(transferIndex);
+                treeifyIfNeeded(transferIndex + oldTable.length);
             }
+            oldTable[transferIndex] = null;
         }
+        if (transferIndex == oldTable.length) {
+            oldTable = null;
+        }
+    }
+
+    /**
+     * Splits the tree of old bucket transferIndex between its two new buckets. Both halves
+     * come out of the in-order walk already sorted, so neither needs comparisons to rebuild.
+     */
+    private void splitTree(AVLTree<E> tree) {
+        List<E> lo = new ArrayList<>();
+        List<E> hi = new ArrayList<>();
+        for (E value : tree) {
+            if (indexFor(strategy.hash(value), table.length) == transferIndex) {
+                lo.add(value);
+            } else {
+                hi.add(value);
+            }
+        }
+        table[transferIndex] = bucketOf(lo);
+        table[transferIndex + oldTable.length] = bucketOf(hi);
+    }
+
+    private Object bucketOf(List<E> sorted) {
+        if (sorted.size() > TREEIFY_THRESHOLD) {
+            AVLTree<E> tree = new AVLTree<>(comparator);
+            tree.buildFromSorted(sorted.iterator(), sorted.size());
+            return tree;
+        }
+        Node head = null;
+        for (int i = sorted.size() - 1; i >= 0; i--) {
+            Node node = new Node(sorted.get(i));
+            node.next = head;
+            head = node;
+        }
+        return head;
     }
 
     private void print() {
+        if (oldTable != null) {
+            for (int i = transferIndex; i < oldTable.length; i++) {
+                System.out.println("old idx = " + i + ", " + oldTable[i]);
+            }
+        }
         for (int i = 0; i < table.length; i++) {
-            Node curr = getNode(i);
-            System.out.println("idx = " + i + ", " + curr);
+            System.out.println("idx = " + i + ", " + table[i]);
         }
         System.out.println("-------------------------");
     }
@@ -0,0 +1,116 @@
+package ru.mail.polis;
+
+/**
+ * Distribution of keys over the buckets of a power-of-two table under a {@link HashStrategy},
+ * for choosing a strategy for a key type: a good one is close to what uniformly random hashes
+ * give, which the report states alongside.
+ */
+public final class CollisionReport {
+
+    private final int capacity;
+    private final int keys;
+    private final int usedBuckets;
+    private final int maxChain;
+    //chainHistogram[k] - число бакетов с k ключами, последний - с k и более
+    private final int[] chainHistogram;
+    private final double chiSquared;
+
+    private CollisionReport(int capacity, int keys, int[] counts) {
+        this.capacity = capacity;
+        this.keys = keys;
+        int used = 0;
+        int max = 0;
+        double expected = (double) keys / capacity;
+        double chi = 0;
+        int[] histogram = new int[16];
+        for (int count : counts) {
+            if (count > 0) {
+                used++;
+            }
+            max = Math.max(max, count);
+            histogram[Math.min(count, histogram.length - 1)]++;
+            chi += (count - expected) * (count - expected) / expected;
+        }
+        this.usedBuckets = used;
+        this.maxChain = max;
+        this.chainHistogram = histogram;
+        this.chiSquared = keys == 0 ? 0 : chi;
+    }
+
+    /**
+     * Places the keys, which should be distinct, into capacity buckets by the low bits of
+     * their hashes.
+     *
+     * @throws IllegalArgumentException if capacity is not a positive power of two
+     */
+    public static <E> CollisionReport of(HashStrategy<? super E> strategy, Iterable<? extends E> keys, int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity is not a power of two: " + capacity);
+        }
+        int[] counts = new int[capacity];
+        int n = 0;
+        for (E key : keys) {
+            counts[strategy.hash(key) & (capacity - 1)]++;
+            n++;
+        }
+        return new CollisionReport(capacity, n, counts);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int keys() {
+        return keys;
+    }
+
+    public int usedBuckets() {
+        return usedBuckets;
+    }
+
+    /**
+     * @return the number of non-empty buckets expected for uniformly random hashes
+     */
+    public double expectedUsedBuckets() {
+        return capacity * (1 - Math.pow(1 - 1.0 / capacity, keys));
+    }
+
+    public int maxChain() {
+        return maxChain;
+    }
+
+    /**
+     * @return average number of keys in a non-empty bucket
+     */
+    public double averageChain() {
+        return usedBuckets == 0 ? 0 : (double) keys / usedBuckets;
+    }
+
+    /**
+     * @return element k is the number of buckets holding k keys, the last one counts all
+     * the longer chains
+     */
+    public int[] chainHistogram() {
+        return chainHistogram.clone();
+    }
+
+    /**
+     * @return chi-squared statistic of bucket counts against the uniform distribution;
+     * random hashes give about capacity - 1, much larger values mean clustering
+     */
+    public double chiSquared() {
+        return chiSquared;
+    }
+
+    @Override
+    public String toString() {
+        return "CollisionReport{capacity=" + capacity
+                + ", keys=" + keys
+                + ", usedBuckets=" + usedBuckets
+                + String.format(" (random: %.1f)", expectedUsedBuckets())
+                + ", maxChain=" + maxChain
+                + String.format(", averageChain=%.3f", averageChain())
+                + String.format(", chiSquared=%.1f (random: ~%d)", chiSquared, capacity - 1)
+                + "}";
+    }
+}
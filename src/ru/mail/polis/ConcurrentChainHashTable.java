@@ -0,0 +1,323 @@
+package ru.mail.polis;
+
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe {@link ChainHashTable}.
+ * <ul>
+ * <li>Writers lock one of a fixed number of stripes. The stripe is taken from the low bits of
+ * the hash, and the table is never smaller than the number of stripes, so a key keeps its stripe
+ * across resizes.</li>
+ * <li>Readers take no locks: chain nodes are never modified except for their volatile next
+ * link, and a removed node keeps pointing into the rest of its chain.</li>
+ * <li>Resizing is cooperative. The thread that crosses the threshold publishes a new table, and
+ * every writer that meets a moved bucket helps by claiming a stride of old buckets. A moved
+ * bucket holds a forwarding node, which sends readers and writers to the new table.</li>
+ * </ul>
+ * size() is a sum of striped counters and is exact only in quiescent state.
+ */
+public class ConcurrentChainHashTable<E extends Comparable<E>> implements ISet<E> {
+
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 64;
+    /**
+     * Number of old buckets a thread claims at once while helping a resize.
+     */
+    private static final int TRANSFER_STRIDE = 16;
+
+    class Node {
+        final E value;
+        volatile Node next;
+
+        Node(E value, Node next) {
+            this.value = value;
+            this.next = next;
+        }
+
+        /**
+         * @return the table this bucket has been moved to, null for an ordinary chain node
+         */
+        AtomicReferenceArray<Node> forwardedTo() {
+            return null;
+        }
+    }
+
+    /**
+     * Placed into a bucket of the old table once it has been copied to the new one.
+     */
+    class ForwardingNode extends Node {
+        final AtomicReferenceArray<Node> nextTable;
+
+        ForwardingNode(AtomicReferenceArray<Node> nextTable) {
+            super(null, null);
+            this.nextTable = nextTable;
+        }
+
+        @Override
+        AtomicReferenceArray<Node> forwardedTo() {
+            return nextTable;
+        }
+    }
+
+    /**
+     * State of one table doubling, shared by all threads that help with it.
+     */
+    class Resize {
+        final AtomicReferenceArray<Node> oldTable;
+        final AtomicReferenceArray<Node> newTable;
+        final ForwardingNode forwarding;
+        //следующий ещё не взятый в работу бакет oldTable
+        final AtomicInteger claimIndex = new AtomicInteger();
+        //сколько бакетов oldTable ещё не перенесено
+        final AtomicInteger remaining;
+
+        Resize(AtomicReferenceArray<Node> oldTable) {
+            this.oldTable = oldTable;
+            this.newTable = new AtomicReferenceArray<>(oldTable.length() << 1);
+            this.forwarding = new ForwardingNode(newTable);
+            this.remaining = new AtomicInteger(oldTable.length());
+        }
+    }
+
+    private final Comparator<E> comparator;
+    private final Object[] locks;
+    private volatile AtomicReferenceArray<Node> table;
+    private final AtomicReference<Resize> resize = new AtomicReference<>();
+    private final LongAdder size = new LongAdder();
+
+    public ConcurrentChainHashTable() {
+        this(null);
+    }
+
+    public ConcurrentChainHashTable(Comparator<E> comparator) {
+        this(comparator, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param concurrencyLevel expected number of concurrent writers, rounded up to a power of two
+     */
+    public ConcurrentChainHashTable(Comparator<E> comparator, int concurrencyLevel) {
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrency level must be positive: " + concurrencyLevel);
+        }
+        int stripes = Integer.highestOneBit(Math.min(concurrencyLevel, 1 << 16) * 2 - 1);
+        this.comparator = comparator;
+        this.locks = new Object[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new Object();
+        }
+        this.table = new AtomicReferenceArray<>(Math.max(stripes, 16));
+    }
+
+    @Override
+    public int size() {
+        long sum = size.sum();
+        return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.max(sum, 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size.sum() <= 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = spread(value.hashCode());
+        AtomicReferenceArray<Node> tab = table;
+        while (true) {
+            Node curr = tab.get(h & (tab.length() - 1));
+            if (curr != null && curr.forwardedTo() != null) {
+                tab = curr.forwardedTo();
+                continue;
+            }
+            for (; curr != null; curr = curr.next) {
+                if (compare(value, curr.value) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = spread(value.hashCode());
+        AtomicReferenceArray<Node> tab = table;
+        while (true) {
+            int idx = h & (tab.length() - 1);
+            AtomicReferenceArray<Node> forwarded = null;
+            synchronized (lockFor(h)) {
+                Node head = tab.get(idx);
+                if (head != null && head.forwardedTo() != null) {
+                    forwarded = head.forwardedTo();
+                } else {
+                    for (Node curr = head; curr != null; curr = curr.next) {
+                        if (compare(value, curr.value) == 0) {
+                            return false;
+                        }
+                    }
+                    tab.set(idx, new Node(value, head));
+                }
+            }
+            if (forwarded != null) {
+                tab = helpResize(tab, forwarded);
+                continue;
+            }
+            size.increment();
+            checkResize(tab);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = spread(value.hashCode());
+        AtomicReferenceArray<Node> tab = table;
+        while (true) {
+            int idx = h & (tab.length() - 1);
+            AtomicReferenceArray<Node> forwarded = null;
+            synchronized (lockFor(h)) {
+                Node head = tab.get(idx);
+                if (head != null && head.forwardedTo() != null) {
+                    forwarded = head.forwardedTo();
+                } else {
+                    Node prev = null;
+                    Node curr = head;
+                    while (curr != null && compare(value, curr.value) != 0) {
+                        prev = curr;
+                        curr = curr.next;
+                    }
+                    if (curr == null) {
+                        return false;
+                    }
+                    //curr.next не обнуляем: по нему может идти читатель
+                    if (prev == null) {
+                        tab.set(idx, curr.next);
+                    } else {
+                        prev.next = curr.next;
+                    }
+                }
+            }
+            if (forwarded != null) {
+                tab = helpResize(tab, forwarded);
+                continue;
+            }
+            size.decrement();
+            return true;
+        }
+    }
+
+    /**
+     * Starts doubling tab once it is half full, or joins a doubling that is already running.
+     */
+    private void checkResize(AtomicReferenceArray<Node> tab) {
+        if (size.sum() * 2 < tab.length() || tab != table) {
+            return;
+        }
+        Resize r = resize.get();
+        if (r == null) {
+            Resize started = new Resize(tab);
+            if (resize.compareAndSet(null, started)) {
+                //между проверкой выше и CAS другой поток мог успеть удвоить tab целиком
+                if (tab != table) {
+                    resize.compareAndSet(started, null);
+                    return;
+                }
+                r = started;
+            } else {
+                r = resize.get();
+            }
+        }
+        if (r != null) {
+            transfer(r);
+        }
+    }
+
+    private AtomicReferenceArray<Node> helpResize(AtomicReferenceArray<Node> tab,
+                                                  AtomicReferenceArray<Node> forwarded) {
+        Resize r = resize.get();
+        if (r != null && r.oldTable == tab) {
+            transfer(r);
+        }
+        return forwarded;
+    }
+
+    /**
+     * Claims strides of old buckets until none are left. The thread that finishes the last
+     * bucket publishes the new table, unless r turns out to be stale: a Resize installed for a
+     * table whose doubling has already completed finds only forwarding nodes and publishes
+     * nothing.
+     */
+    private void transfer(Resize r) {
+        int n = r.oldTable.length();
+        while (true) {
+            int start = r.claimIndex.getAndAdd(TRANSFER_STRIDE);
+            if (start >= n) {
+                return;
+            }
+            int end = Math.min(start + TRANSFER_STRIDE, n);
+            for (int i = start; i < end; i++) {
+                transferBucket(r, i);
+            }
+            if (r.remaining.addAndGet(start - end) == 0) {
+                if (table == r.oldTable) {
+                    table = r.newTable;
+                }
+                resize.compareAndSet(r, null);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copies bucket i of the old table into buckets i and i + n of the new one. Old nodes stay
+     * untouched because readers may still be walking them; the copies are published before
+     * the forwarding node. A bucket that already holds a forwarding node has been moved by
+     * an earlier doubling and is skipped.
+     */
+    private void transferBucket(Resize r, int i) {
+        int n = r.oldTable.length();
+        synchronized (lockFor(i)) {
+            Node head = r.oldTable.get(i);
+            if (head != null && head.forwardedTo() != null) {
+                return;
+            }
+            Node lo = null;
+            Node hi = null;
+            for (Node curr = head; curr != null; curr = curr.next) {
+                if ((spread(curr.value.hashCode()) & n) == 0) {
+                    lo = new Node(curr.value, lo);
+                } else {
+                    hi = new Node(curr.value, hi);
+                }
+            }
+            r.newTable.set(i, lo);
+            r.newTable.set(i + n, hi);
+            r.oldTable.set(i, r.forwarding);
+        }
+    }
+
+    private Object lockFor(int hash) {
+        return locks[hash & (locks.length - 1)];
+    }
+
+    private static int spread(int hashCode) {
+        return (hashCode ^ (hashCode >>> 16)) & 0x7fffffff;
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+}
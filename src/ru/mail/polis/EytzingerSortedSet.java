@@ -0,0 +1,293 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable sorted set in a single array laid out in Eytzinger (breadth-first) order: the
+ * children of slot k are 2k and 2k + 1, slot 0 is unused. The first levels of every search
+ * share a few cache lines, and there are no nodes at all, just one reference per element.
+ * <p>
+ * The descent has no data-dependent branch: the next slot is computed from the sign of the
+ * comparison, and the answer is recovered from the trailing ones of the final index (Khuong,
+ * Morin, "Array layouts for comparison-based searching", 2017). Java has no prefetch
+ * instruction, so unlike the C version of the layout no explicit prefetching is done.
+ * <p>
+ * Built once by {@link #freeze(ISortedSet)}; the mutators of {@link ISet} throw
+ * UnsupportedOperationException.
+ */
+public final class EytzingerSortedSet<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private final Object[] values;
+    private final int size;
+    private final Comparator<E> comparator;
+
+    private EytzingerSortedSet(Object[] values, int size, Comparator<E> comparator) {
+        this.values = values;
+        this.size = size;
+        this.comparator = comparator;
+    }
+
+    /**
+     * Copies set, which must be in natural order, in O(n).
+     */
+    public static <E extends Comparable<E>> EytzingerSortedSet<E> freeze(ISortedSet<E> set) {
+        return freeze(set, null);
+    }
+
+    /**
+     * @param comparator the order of set, null for natural order
+     * @throws IllegalArgumentException if the elements of set are not strictly ascending in
+     *                                  this order
+     */
+    public static <E extends Comparable<E>> EytzingerSortedSet<E> freeze(ISortedSet<E> set, Comparator<E> comparator) {
+        return fromSorted(set.inorderTraverse(), comparator);
+    }
+
+    /**
+     * @throws IllegalArgumentException if values are not strictly ascending
+     */
+    public static <E extends Comparable<E>> EytzingerSortedSet<E> fromSorted(List<E> values, Comparator<E> comparator) {
+        int size = values.size();
+        EytzingerSortedSet<E> set = new EytzingerSortedSet<>(new Object[size + 1], size, comparator);
+        E prev = null;
+        for (E value : values) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            if (prev != null && set.compare(prev, value) >= 0) {
+                throw new IllegalArgumentException("values are not strictly ascending: " + prev + ", " + value);
+            }
+            prev = value;
+        }
+        set.fill(values.iterator(), 1);
+        return set;
+    }
+
+    /**
+     * In-order walk of the implicit tree, taking the elements in ascending order.
+     */
+    private void fill(Iterator<E> it, int k) {
+        if (k > size) {
+            return;
+        }
+        fill(it, 2 * k);
+        values[k] = it.next();
+        fill(it, 2 * k + 1);
+    }
+
+    /**
+     * @return slot of the least element greater than (or equal to, if inclusive) value, 0 if none
+     */
+    private int higherSlot(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int bound = inclusive ? 0 : 1;
+        int k = 1;
+        while (k <= size) {
+            //направо, если values[k] < value (или <= для строгой границы); JIT выбирает без перехода
+            k = 2 * k + (compare(elementAt(k), value) < bound ? 1 : 0);
+        }
+        //последний поворот налево отмечен самым младшим нулём k
+        return k >>> (Integer.numberOfTrailingZeros(~k) + 1);
+    }
+
+    /**
+     * @return slot of the in-order successor of slot k, 0 if none
+     */
+    private int successor(int k) {
+        if (2 * k + 1 <= size) {
+            k = 2 * k + 1;
+            while (2 * k <= size) {
+                k = 2 * k;
+            }
+            return k;
+        }
+        while ((k & 1) == 1) {
+            k >>>= 1;
+        }
+        return k >>> 1;
+    }
+
+    /**
+     * @return slot of the in-order predecessor of slot k, 0 if none
+     */
+    private int predecessor(int k) {
+        if (2 * k <= size) {
+            k = 2 * k;
+            while (2 * k + 1 <= size) {
+                k = 2 * k + 1;
+            }
+            return k;
+        }
+        while (k > 1 && (k & 1) == 0) {
+            k >>>= 1;
+        }
+        return k >>> 1;
+    }
+
+    private int firstSlot() {
+        return size == 0 ? 0 : Integer.highestOneBit(size);
+    }
+
+    private int lastSlot() {
+        return size == 0 ? 0 : Integer.highestOneBit(size + 1) - 1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        int k = higherSlot(value, true);
+        return k != 0 && compare(elementAt(k), value) == 0;
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, the set is immutable
+     */
+    @Override
+    public boolean add(E value) {
+        throw new UnsupportedOperationException("set is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, the set is immutable
+     */
+    @Override
+    public boolean remove(E value) {
+        throw new UnsupportedOperationException("set is immutable");
+    }
+
+    @Override
+    public E first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return elementAt(firstSlot());
+    }
+
+    @Override
+    public E last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        return elementAt(lastSlot());
+    }
+
+    @Override
+    public List<E> inorderTraverse() {
+        List<E> list = new ArrayList<E>(size);
+        for (E value : this) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    @Override
+    public E floor(E value) {
+        int k = higherSlot(value, false);
+        return elementAtOrNull(k == 0 ? lastSlot() : predecessor(k));
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return elementAtOrNull(higherSlot(value, true));
+    }
+
+    @Override
+    public E higher(E value) {
+        return elementAtOrNull(higherSlot(value, false));
+    }
+
+    @Override
+    public E lower(E value) {
+        int k = higherSlot(value, true);
+        return elementAtOrNull(k == 0 ? lastSlot() : predecessor(k));
+    }
+
+    @Override
+    public Iterator<E> range(E from, E to) {
+        if (from == null || to == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (compare(from, to) > 0) {
+            throw new IllegalArgumentException("from is greater than to: " + from + ", " + to);
+        }
+        return new SlotIterator(higherSlot(from, true), to, false);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new SlotIterator(firstSlot(), null, false);
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return new SlotIterator(lastSlot(), null, true);
+    }
+
+    /**
+     * Follows successor (or predecessor) slots, O(1) amortised per step.
+     */
+    private class SlotIterator implements Iterator<E> {
+        private int next;
+        //исключающая верхняя граница, null - без границы
+        private final E to;
+        private final boolean descending;
+
+        SlotIterator(int first, E to, boolean descending) {
+            this.to = to;
+            this.descending = descending;
+            this.next = bounded(first);
+        }
+
+        private int bounded(int k) {
+            return k == 0 || to != null && compare(elementAt(k), to) >= 0 ? 0 : k;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != 0;
+        }
+
+        @Override
+        public E next() {
+            if (next == 0) {
+                throw new NoSuchElementException();
+            }
+            E value = elementAt(next);
+            next = bounded(descending ? predecessor(next) : successor(next));
+            return value;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elementAt(int k) {
+        return (E) values[k];
+    }
+
+    private E elementAtOrNull(int k) {
+        return k == 0 ? null : elementAt(k);
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    @Override
+    public String toString() {
+        return "Eytzinger" + inorderTraverse();
+    }
+}
@@ -0,0 +1,64 @@
+package ru.mail.polis;
+
+import java.security.SecureRandom;
+
+/**
+ * Turns an element into the hash that places it in a hash table. Tables have power-of-two
+ * capacities and take the low bits of the hash by mask, so every bit of the key's hashCode()
+ * has to reach the low bits of the result; hashCode() as is (IDENTITY) puts sequential or
+ * aligned keys into a few buckets.
+ * <p>
+ * A strategy never sees more than hashCode(): keys with equal hash codes collide in every
+ * strategy. The seeded one defends against keys chosen to collide in the buckets of a known
+ * mixer, not against equal hash codes.
+ *
+ * @see CollisionReport
+ */
+public interface HashStrategy<E> {
+
+    int hash(E value);
+
+    /**
+     * hashCode() unchanged, for comparison only.
+     */
+    HashStrategy<Object> IDENTITY = Object::hashCode;
+
+    /**
+     * Fibonacci hashing: multiplication by 2^32 / golden ratio with the high half folded into
+     * the low one. Two operations, good for sequential keys.
+     */
+    HashStrategy<Object> FIBONACCI = value -> {
+        int h = value.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    };
+
+    /**
+     * Finalizer of MurmurHash3: every input bit flips each output bit with probability close
+     * to 1/2.
+     */
+    HashStrategy<Object> MURMUR = value -> murmurMix(value.hashCode());
+
+    /**
+     * MURMUR of the hash code xored with seed, so the buckets keys fall into cannot be
+     * predicted without the seed.
+     */
+    static HashStrategy<Object> seeded(int seed) {
+        return value -> murmurMix(value.hashCode() ^ seed);
+    }
+
+    /**
+     * @return {@link #seeded(int)} with a seed from SecureRandom
+     */
+    static HashStrategy<Object> randomSeeded() {
+        return seeded(new SecureRandom().nextInt());
+    }
+
+    static int murmurMix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,39 @@
+package ru.mail.polis;
+
+/**
+ * Counterpart of {@link ISet} for primitive ints: values are never boxed.
+ */
+public interface IIntSet {
+
+    /**
+     * Returns the number of elements in this set (its cardinality).  If this
+     * set contains more than <tt>Integer.MAX_VALUE</tt> elements, returns
+     * <tt>Integer.MAX_VALUE</tt>.
+     *
+     * @return the number of elements in this set (its cardinality)
+     */
+    int size();
+
+    /**
+     * @return true if this set contains no elements
+     */
+    boolean isEmpty();
+
+    /**
+     * @param value element whose presence in this set is to be tested
+     * @return true if this set contains the specified element
+     */
+    boolean contains(int value);
+
+    /**
+     * @param value element to be added to this set
+     * @return true if this set did not already contain the specified element
+     */
+    boolean add(int value);
+
+    /**
+     * @param value element to be removed from this set, if present
+     * @return true if this set contained the specified element
+     */
+    boolean remove(int value);
+}
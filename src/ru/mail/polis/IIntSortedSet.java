@@ -0,0 +1,24 @@
+package ru.mail.polis;
+
+/**
+ * Counterpart of {@link ISortedSet} for primitive ints in natural order.
+ */
+public interface IIntSortedSet extends IIntSet {
+
+    /**
+     * @return the first (lowest) element currently in this set
+     * @throws java.util.NoSuchElementException if this set is empty
+     */
+    int first();
+
+    /**
+     * @return the last (highest) element currently in this set
+     * @throws java.util.NoSuchElementException if this set is empty
+     */
+    int last();
+
+    /**
+     * @return array of elements in sorting ordering
+     */
+    int[] inorderTraverse();
+}
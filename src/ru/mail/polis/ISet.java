@@ -36,4 +36,54 @@ public interface ISet<E extends Comparable<E>> {
      * @throws NullPointerException if the specified element is null
      */
     boolean remove(E value);
+
+    /**
+     * Tests every key of the batch: out[i] is set to contains(keys[i]). The default
+     * implementation calls contains for each key; implementations override it to share work
+     * between the keys of one batch.
+     *
+     * @throws NullPointerException     if keys, out or any of the keys is null
+     * @throws IllegalArgumentException if out is shorter than keys
+     */
+    default void containsBatch(E[] keys, boolean[] out) {
+        Batches.checkBatch(keys, out);
+        for (int i = 0; i < keys.length; i++) {
+            out[i] = contains(keys[i]);
+        }
+    }
+
+    /**
+     * Adds all the values, which may repeat. The values are checked for null before the set
+     * is changed.
+     *
+     * @return the number of elements added to this set
+     * @throws NullPointerException if values or any of its elements is null
+     */
+    default int addAll(E[] values) {
+        Batches.checkValues(values);
+        int added = 0;
+        for (E value : values) {
+            if (add(value)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Removes all the values, which may repeat, see {@link #addAll(Comparable[])}.
+     *
+     * @return the number of elements removed from this set
+     * @throws NullPointerException if values or any of its elements is null
+     */
+    default int removeAll(E[] values) {
+        Batches.checkValues(values);
+        int removed = 0;
+        for (E value : values) {
+            if (remove(value)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
 }
@@ -1,8 +1,9 @@
 package ru.mail.polis;
 
+import java.util.Iterator;
 import java.util.List;
 
-public interface ISortedSet<E extends Comparable<E>> extends ISet<E> {
+public interface ISortedSet<E extends Comparable<E>> extends ISet<E>, Iterable<E> {
 
     /**
      * @return the first (lowest) element currently in this set
@@ -20,4 +21,106 @@ public interface ISortedSet<E extends Comparable<E>> extends ISet<E> {
      * @return list of element in sorting ordering
      */
     List<E> inorderTraverse();
+
+    /**
+     * Elements are produced lazily with O(1) amortised cost per step. The set must not be
+     * modified while the iterator is in use.
+     *
+     * @return iterator over the elements of this set in ascending order
+     */
+    @Override
+    Iterator<E> iterator();
+
+    /**
+     * @return iterator over the elements of this set in descending order
+     * @see #iterator()
+     */
+    Iterator<E> descendingIterator();
+
+    /**
+     * @return the greatest element in this set less than or equal to the given one,
+     * or null if there is no such element
+     * @throws NullPointerException if the specified element is null
+     */
+    E floor(E value);
+
+    /**
+     * @return the least element in this set greater than or equal to the given one,
+     * or null if there is no such element
+     * @throws NullPointerException if the specified element is null
+     */
+    E ceiling(E value);
+
+    /**
+     * @return the least element in this set strictly greater than the given one,
+     * or null if there is no such element
+     * @throws NullPointerException if the specified element is null
+     */
+    E higher(E value);
+
+    /**
+     * @return the greatest element in this set strictly less than the given one,
+     * or null if there is no such element
+     * @throws NullPointerException if the specified element is null
+     */
+    E lower(E value);
+
+    /**
+     * Elements are found lazily, so walking k of them costs O(log n + k).
+     * The set must not be modified while the iterator is in use.
+     *
+     * @param from low endpoint of the range (inclusive)
+     * @param to   high endpoint of the range (exclusive)
+     * @return iterator over the elements in [from, to) in ascending order
+     * @throws NullPointerException     if from or to is null
+     * @throws IllegalArgumentException if from is greater than to
+     */
+    Iterator<E> range(E from, E to);
+
+    /**
+     * The default implementation walks the iterator, O(k); trees augmented with subtree
+     * sizes answer in O(log n).
+     *
+     * @param k zero-based index of the element in ascending order
+     * @return the k-th smallest element of this set
+     * @throws IndexOutOfBoundsException if k is negative or not less than size()
+     */
+    default E select(int k) {
+        if (k < 0 || k >= size()) {
+            throw new IndexOutOfBoundsException("k = " + k + ", size = " + size());
+        }
+        Iterator<E> it = iterator();
+        for (int i = 0; i < k; i++) {
+            it.next();
+        }
+        return it.next();
+    }
+
+    /**
+     * The default implementation counts the elements below value, O(log n + rank).
+     *
+     * @return the number of elements in this set strictly less than value
+     * @throws NullPointerException if the specified element is null
+     */
+    default int rank(E value) {
+        if (lower(value) == null) {
+            return 0;
+        }
+        return countInRange(first(), value);
+    }
+
+    /**
+     * The default implementation counts the elements of {@link #range(Comparable, Comparable)}.
+     *
+     * @return the number of elements in [from, to)
+     * @throws NullPointerException     if from or to is null
+     * @throws IllegalArgumentException if from is greater than to
+     */
+    default int countInRange(E from, E to) {
+        int count = 0;
+        for (Iterator<E> it = range(from, to); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
 }
@@ -0,0 +1,320 @@
+package ru.mail.polis;
+
+import java.util.NoSuchElementException;
+
+/**
+ * {@link RedBlackTree} specialised for primitive ints in natural order: values live directly
+ * in the nodes, so there is no Integer per element and lookups never box.
+ */
+public class IntRedBlackTree implements IIntSortedSet {
+
+    private static final boolean BLACK = false;
+    private static final boolean RED = true;
+    private final Node nil = new Node(0);
+
+    class Node {
+
+        Node(int value) {
+            this.value = value;
+        }
+
+        int value;
+        Node left = nil;
+        Node right = nil;
+        Node parent = nil;
+        boolean color = BLACK;
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("N{");
+            sb.append("d=").append(value);
+            if (left != nil) {
+                sb.append(", l=").append(left);
+            }
+            if (right != nil) {
+                sb.append(", r=").append(right);
+            }
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    private Node root = nil;
+    private int size;
+
+    @Override
+    public int first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        Node curr = root;
+        while (curr.left != nil) {
+            curr = curr.left;
+        }
+        return curr.value;
+    }
+
+    @Override
+    public int last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        Node curr = root;
+        while (curr.right != nil) {
+            curr = curr.right;
+        }
+        return curr.value;
+    }
+
+    @Override
+    public int[] inorderTraverse() {
+        int[] values = new int[size];
+        inorderTraverse(root, values, 0);
+        return values;
+    }
+
+    private int inorderTraverse(Node curr, int[] values, int pos) {
+        if (curr == nil) {
+            return pos;
+        }
+        pos = inorderTraverse(curr.left, values, pos);
+        values[pos++] = curr.value;
+        return inorderTraverse(curr.right, values, pos);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == nil;
+    }
+
+    @Override
+    public boolean contains(int value) {
+        return find(value) != nil;
+    }
+
+    private Node find(int value) {
+        Node curr = root;
+        while (curr != nil && curr.value != value) {
+            curr = value < curr.value ? curr.left : curr.right;
+        }
+        return curr;
+    }
+
+    @Override
+    public boolean add(int value) {
+        Node parent = nil;
+        Node curr = root;
+        while (curr != nil) {
+            if (value == curr.value) {
+                return false;
+            }
+            parent = curr;
+            curr = value < curr.value ? curr.left : curr.right;
+        }
+        Node nodeToAdd = new Node(value);
+        nodeToAdd.parent = parent;
+        nodeToAdd.color = RED;
+        if (parent == nil) {
+            root = nodeToAdd;
+        } else if (value < parent.value) {
+            parent.left = nodeToAdd;
+        } else {
+            parent.right = nodeToAdd;
+        }
+        fixUpOnAdd(nodeToAdd);
+        size++;
+        return true;
+    }
+
+    private void fixUpOnAdd(Node node) {
+        while (node.parent.color == RED) {
+            Node grand = node.parent.parent;
+            if (node.parent == grand.left) {
+                Node uncle = grand.right;
+                if (uncle.color == RED) {
+                    node.parent.color = BLACK;
+                    uncle.color = BLACK;
+                    grand.color = RED;
+                    node = grand;
+                } else {
+                    if (node == node.parent.right) {
+                        node = node.parent;
+                        rotateLeft(node);
+                    }
+                    node.parent.color = BLACK;
+                    node.parent.parent.color = RED;
+                    rotateRight(node.parent.parent);
+                }
+            } else {
+                Node uncle = grand.left;
+                if (uncle.color == RED) {
+                    node.parent.color = BLACK;
+                    uncle.color = BLACK;
+                    grand.color = RED;
+                    node = grand;
+                } else {
+                    if (node == node.parent.left) {
+                        node = node.parent;
+                        rotateRight(node);
+                    }
+                    node.parent.color = BLACK;
+                    node.parent.parent.color = RED;
+                    rotateLeft(node.parent.parent);
+                }
+            }
+        }
+        root.color = BLACK;
+    }
+
+    private void rotateLeft(Node n) {
+        Node v = n.right;
+        n.right = v.left;
+        if (v.left != nil) {
+            v.left.parent = n;
+        }
+        v.parent = n.parent;
+        if (n.parent == nil) {
+            root = v;
+        } else if (n == n.parent.left) {
+            n.parent.left = v;
+        } else {
+            n.parent.right = v;
+        }
+        v.left = n;
+        n.parent = v;
+    }
+
+    private void rotateRight(Node n) {
+        Node v = n.left;
+        n.left = v.right;
+        if (v.right != nil) {
+            v.right.parent = n;
+        }
+        v.parent = n.parent;
+        if (n.parent == nil) {
+            root = v;
+        } else if (n == n.parent.right) {
+            n.parent.right = v;
+        } else {
+            n.parent.left = v;
+        }
+        v.right = n;
+        n.parent = v;
+    }
+
+    @Override
+    public boolean remove(int value) {
+        Node nodeForRemove = find(value);
+        if (nodeForRemove == nil) {
+            return false;
+        }
+        Node n;
+        boolean isFixupOnRemoveNeeded = nodeForRemove.color == BLACK;
+        if (nodeForRemove.left == nil) {
+            n = nodeForRemove.right;
+            performTransplant(nodeForRemove, nodeForRemove.right);
+        } else if (nodeForRemove.right == nil) {
+            n = nodeForRemove.left;
+            performTransplant(nodeForRemove, nodeForRemove.left);
+        } else {
+            Node k = nodeForRemove.right;
+            while (k.left != nil) {
+                k = k.left;
+            }
+            isFixupOnRemoveNeeded = k.color == BLACK;
+            n = k.right;
+            if (k.parent == nodeForRemove) {
+                n.parent = k;
+            } else {
+                performTransplant(k, k.right);
+                k.right = nodeForRemove.right;
+                k.right.parent = k;
+            }
+            performTransplant(nodeForRemove, k);
+            k.left = nodeForRemove.left;
+            k.left.parent = k;
+            k.color = nodeForRemove.color;
+        }
+        if (isFixupOnRemoveNeeded) {
+            fixUpOnRemove(n);
+        }
+        size--;
+        return true;
+    }
+
+    private void performTransplant(Node n, Node k) {
+        if (n.parent == nil) {
+            root = k;
+        } else if (n == n.parent.left) {
+            n.parent.left = k;
+        } else {
+            n.parent.right = k;
+        }
+        k.parent = n.parent;
+    }
+
+    private void fixUpOnRemove(Node node) {
+        while (node != root && node.color == BLACK) {
+            if (node == node.parent.left) {
+                Node w = node.parent.right;
+                if (w.color == RED) {
+                    w.color = BLACK;
+                    node.parent.color = RED;
+                    rotateLeft(node.parent);
+                    w = node.parent.right;
+                }
+                if (w.left.color == BLACK && w.right.color == BLACK) {
+                    w.color = RED;
+                    node = node.parent;
+                } else {
+                    if (w.right.color == BLACK) {
+                        w.left.color = BLACK;
+                        w.color = RED;
+                        rotateRight(w);
+                        w = node.parent.right;
+                    }
+                    w.color = node.parent.color;
+                    node.parent.color = BLACK;
+                    w.right.color = BLACK;
+                    rotateLeft(node.parent);
+                    node = root;
+                }
+            } else {
+                Node w = node.parent.left;
+                if (w.color == RED) {
+                    w.color = BLACK;
+                    node.parent.color = RED;
+                    rotateRight(node.parent);
+                    w = node.parent.left;
+                }
+                if (w.right.color == BLACK && w.left.color == BLACK) {
+                    w.color = RED;
+                    node = node.parent;
+                } else {
+                    if (w.left.color == BLACK) {
+                        w.right.color = BLACK;
+                        w.color = RED;
+                        rotateLeft(w);
+                        w = node.parent.left;
+                    }
+                    w.color = node.parent.color;
+                    node.parent.color = BLACK;
+                    w.left.color = BLACK;
+                    rotateRight(node.parent);
+                    node = root;
+                }
+            }
+        }
+        node.color = BLACK;
+    }
+
+    @Override
+    public String toString() {
+        return "BST{" + (root == nil ? null : root) + "}";
+    }
+}
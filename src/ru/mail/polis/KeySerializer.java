@@ -0,0 +1,92 @@
+package ru.mail.polis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts keys to and from a fixed number of bytes, for structures that keep their elements
+ * outside of the Java heap.
+ * <p>
+ * A serialized key always takes exactly {@link #size()} bytes of storage. write and read work at
+ * the current position of a buffer whose remaining space is exactly size() bytes.
+ */
+public interface KeySerializer<E> {
+
+    /**
+     * @return number of bytes of one serialized key
+     */
+    int size();
+
+    /**
+     * @throws IllegalArgumentException if the value does not fit into size() bytes
+     */
+    void write(E value, ByteBuffer buffer);
+
+    E read(ByteBuffer buffer);
+
+    KeySerializer<Integer> INTEGER = new KeySerializer<Integer>() {
+        @Override
+        public int size() {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public void write(Integer value, ByteBuffer buffer) {
+            buffer.putInt(value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+    };
+
+    KeySerializer<Long> LONG = new KeySerializer<Long>() {
+        @Override
+        public int size() {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void write(Long value, ByteBuffer buffer) {
+            buffer.putLong(value);
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer) {
+            return buffer.getLong();
+        }
+    };
+
+    /**
+     * @param maxBytes maximum length of a key in UTF-8 bytes
+     * @return serializer of strings as a two-byte length followed by UTF-8 bytes
+     */
+    static KeySerializer<String> utf8(int maxBytes) {
+        if (maxBytes <= 0 || maxBytes > 0xFFFF) {
+            throw new IllegalArgumentException("max length must be in [1, 65535]: " + maxBytes);
+        }
+        return new KeySerializer<String>() {
+            @Override
+            public int size() {
+                return Short.BYTES + maxBytes;
+            }
+
+            @Override
+            public void write(String value, ByteBuffer buffer) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > maxBytes) {
+                    throw new IllegalArgumentException("key is longer than " + maxBytes + " bytes: " + value);
+                }
+                buffer.putShort((short) bytes.length).put(bytes);
+            }
+
+            @Override
+            public String read(ByteBuffer buffer) {
+                byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+}
@@ -0,0 +1,425 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free sorted set on a skip list (Herlihy, Shavit, "The Art of Multiprocessor Programming", 14.4).
+ * <p>
+ * A node is removed logically by marking its next references from the top level down, and
+ * physically unlinked by later traversals of add/remove with CAS. contains and the other read
+ * operations never write and never restart, so they are wait-free. Iterators and navigation
+ * queries are weakly consistent: they never throw because of concurrent updates and reflect
+ * some, but not necessarily all, of them. size() is a sum of striped counters and is exact
+ * only in quiescent state.
+ */
+public class LockFreeSkipList<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private static final int MAX_LEVEL = 31;
+
+    class Node {
+        final E value;
+        final AtomicMarkableReference<Node>[] next;
+
+        Node(E value, int topLevel) {
+            this.value = value;
+            this.next = newLinks(topLevel + 1);
+            for (int level = 0; level <= topLevel; level++) {
+                next[level] = new AtomicMarkableReference<>(null, false);
+            }
+        }
+
+        int topLevel() {
+            return next.length - 1;
+        }
+
+        @Override
+        public String toString() {
+            return "N{d=" + value + ", h=" + next.length + "}";
+        }
+    }
+
+    private final Node head = new Node(null, MAX_LEVEL);
+    private final Node tail = new Node(null, MAX_LEVEL);
+    private final LongAdder size = new LongAdder();
+    private final Comparator<E> comparator;
+
+    public LockFreeSkipList() {
+        this(null);
+    }
+
+    public LockFreeSkipList(Comparator<E> comparator) {
+        this.comparator = comparator;
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            head.next[level].set(tail, false);
+        }
+    }
+
+    @Override
+    public int size() {
+        long sum = size.sum();
+        return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.max(sum, 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return successor(head) == tail;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        Node curr = ceilingNode(value);
+        return curr != tail && compare(curr.value, value) == 0;
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int topLevel = randomLevel();
+        Node[] preds = newNodes(MAX_LEVEL + 1);
+        Node[] succs = newNodes(MAX_LEVEL + 1);
+        while (true) {
+            if (find(value, preds, succs)) {
+                return false;
+            }
+            Node newNode = new Node(value, topLevel);
+            for (int level = 0; level <= topLevel; level++) {
+                newNode.next[level].set(succs[level], false);
+            }
+            //узел становится частью множества в момент успешного CAS на нижнем уровне
+            if (!preds[0].next[0].compareAndSet(succs[0], newNode, false, false)) {
+                continue;
+            }
+            size.increment();
+            for (int level = 1; level <= topLevel; level++) {
+                while (true) {
+                    AtomicMarkableReference<Node> link = newNode.next[level];
+                    Node succ = succs[level];
+                    Node oldSucc = link.getReference();
+                    if (link.isMarked()) {
+                        //узел уже удаляют, поднимать его выше незачем
+                        return true;
+                    }
+                    if (oldSucc != succ && !link.compareAndSet(oldSucc, succ, false, false)) {
+                        continue;
+                    }
+                    if (preds[level].next[level].compareAndSet(succ, newNode, false, false)) {
+                        break;
+                    }
+                    find(value, preds, succs);
+                }
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node[] preds = newNodes(MAX_LEVEL + 1);
+        Node[] succs = newNodes(MAX_LEVEL + 1);
+        if (!find(value, preds, succs)) {
+            return false;
+        }
+        Node nodeToRemove = succs[0];
+        boolean[] marked = {false};
+        for (int level = nodeToRemove.topLevel(); level >= 1; level--) {
+            Node succ = nodeToRemove.next[level].get(marked);
+            while (!marked[0]) {
+                nodeToRemove.next[level].compareAndSet(succ, succ, false, true);
+                succ = nodeToRemove.next[level].get(marked);
+            }
+        }
+        Node succ = nodeToRemove.next[0].get(marked);
+        while (true) {
+            //удаление линеаризуется на пометке нижнего уровня; выигрывает только один поток
+            boolean iMarkedIt = nodeToRemove.next[0].compareAndSet(succ, succ, false, true);
+            succ = nodeToRemove.next[0].get(marked);
+            if (iMarkedIt) {
+                size.decrement();
+                find(value, preds, succs);
+                return true;
+            } else if (marked[0]) {
+                return false;
+            }
+        }
+    }
+
+    //массивы обобщённого типа создаются только как сырые
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Node[] newNodes(int length) {
+        return (Node[]) new LockFreeSkipList.Node[length];
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private AtomicMarkableReference<Node>[] newLinks(int length) {
+        return new AtomicMarkableReference[length];
+    }
+
+    /**
+     * Fills preds and succs with the nodes around value on every level, unlinking
+     * marked nodes on the way.
+     *
+     * @return true if an unmarked node with this value was found on the bottom level
+     */
+    private boolean find(E value, Node[] preds, Node[] succs) {
+        boolean[] marked = {false};
+        retry:
+        while (true) {
+            Node pred = head;
+            Node curr = null;
+            for (int level = MAX_LEVEL; level >= 0; level--) {
+                curr = pred.next[level].getReference();
+                while (true) {
+                    Node succ = curr.next[level].get(marked);
+                    while (marked[0]) {
+                        if (!pred.next[level].compareAndSet(curr, succ, false, false)) {
+                            continue retry;
+                        }
+                        curr = succ;
+                        succ = curr.next[level].get(marked);
+                    }
+                    if (curr != tail && compare(curr.value, value) < 0) {
+                        pred = curr;
+                        curr = succ;
+                    } else {
+                        break;
+                    }
+                }
+                preds[level] = pred;
+                succs[level] = curr;
+            }
+            return curr != tail && compare(curr.value, value) == 0;
+        }
+    }
+
+    /**
+     * Read-only descent, never helps with unlinking and never restarts.
+     *
+     * @return the last node on the bottom level with value less than the given one, head if none
+     */
+    private Node findLess(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        boolean[] marked = {false};
+        Node pred = head;
+        for (int level = MAX_LEVEL; level >= 0; level--) {
+            Node curr = pred.next[level].getReference();
+            while (true) {
+                Node succ = curr.next[level].get(marked);
+                while (marked[0]) {
+                    curr = succ;
+                    succ = curr.next[level].get(marked);
+                }
+                if (curr != tail && compare(curr.value, value) < 0) {
+                    pred = curr;
+                    curr = succ;
+                } else {
+                    break;
+                }
+            }
+        }
+        return pred;
+    }
+
+    /**
+     * A node may be inserted right after the one returned by findLess, so the walk
+     * continues on the bottom level until it reaches the value.
+     *
+     * @return the first node on the bottom level with value greater than or equal to the given one, tail if none
+     */
+    private Node ceilingNode(E value) {
+        Node curr = successor(findLess(value));
+        while (curr != tail && compare(curr.value, value) < 0) {
+            curr = successor(curr);
+        }
+        return curr;
+    }
+
+    /**
+     * @return the next unmarked node after node on the bottom level, tail if none
+     */
+    private Node successor(Node node) {
+        Node curr = node.next[0].getReference();
+        while (curr != tail && curr.next[0].isMarked()) {
+            curr = curr.next[0].getReference();
+        }
+        return curr;
+    }
+
+    private int randomLevel() {
+        //уровень k выпадает с вероятностью 2^-(k+1)
+        return Math.min(Integer.numberOfTrailingZeros(ThreadLocalRandom.current().nextInt()), MAX_LEVEL);
+    }
+
+    @Override
+    public E first() {
+        Node node = successor(head);
+        if (node == tail) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return node.value;
+    }
+
+    @Override
+    public E last() {
+        Node node = lastNode();
+        if (node == head) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        return node.value;
+    }
+
+    /**
+     * @return the last unmarked node on the bottom level, head if none
+     */
+    private Node lastNode() {
+        Node pred = head;
+        for (int level = MAX_LEVEL; level >= 0; level--) {
+            Node curr = pred.next[level].getReference();
+            while (curr != tail) {
+                if (!curr.next[level].isMarked()) {
+                    pred = curr;
+                }
+                curr = curr.next[level].getReference();
+            }
+        }
+        return pred;
+    }
+
+    @Override
+    public List<E> inorderTraverse() {
+        List<E> list = new ArrayList<E>(size());
+        for (E value : this) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    @Override
+    public E floor(E value) {
+        Node curr = ceilingNode(value);
+        if (curr != tail && compare(curr.value, value) == 0) {
+            return curr.value;
+        }
+        return lower(value);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        Node curr = ceilingNode(value);
+        return curr == tail ? null : curr.value;
+    }
+
+    @Override
+    public E higher(E value) {
+        Node curr = ceilingNode(value);
+        if (curr != tail && compare(curr.value, value) == 0) {
+            curr = successor(curr);
+        }
+        return curr == tail ? null : curr.value;
+    }
+
+    @Override
+    public E lower(E value) {
+        Node pred = findLess(value);
+        return pred == head ? null : pred.value;
+    }
+
+    @Override
+    public Iterator<E> range(E from, E to) {
+        if (from == null || to == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (compare(from, to) > 0) {
+            throw new IllegalArgumentException("from is greater than to: " + from + ", " + to);
+        }
+        return new ListIterator(ceilingNode(from), to);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new ListIterator(successor(head), null);
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return new DescendingIterator();
+    }
+
+    /**
+     * The list is singly linked, so every step is a new O(log n) search for the
+     * predecessor of the previously returned element.
+     */
+    private class DescendingIterator implements Iterator<E> {
+        private Node next = lastNode();
+
+        @Override
+        public boolean hasNext() {
+            return next != head;
+        }
+
+        @Override
+        public E next() {
+            if (next == head) {
+                throw new NoSuchElementException();
+            }
+            E value = next.value;
+            next = findLess(value);
+            return value;
+        }
+    }
+
+    /**
+     * Weakly consistent walk over the bottom level, skipping marked nodes.
+     */
+    private class ListIterator implements Iterator<E> {
+        private Node next;
+        //исключающая верхняя граница, null - без границы
+        private final E to;
+
+        ListIterator(Node first, E to) {
+            this.to = to;
+            this.next = bounded(first);
+        }
+
+        private Node bounded(Node node) {
+            return node == tail || to != null && compare(node.value, to) >= 0 ? tail : node;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != tail;
+        }
+
+        @Override
+        public E next() {
+            if (next == tail) {
+                throw new NoSuchElementException();
+            }
+            E value = next.value;
+            next = bounded(successor(next));
+            return value;
+        }
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    @Override
+    public String toString() {
+        return "SkipList" + inorderTraverse();
+    }
+}
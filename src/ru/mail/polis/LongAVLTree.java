@@ -0,0 +1,259 @@
+package ru.mail.polis;
+
+import java.util.NoSuchElementException;
+
+/**
+ * {@link AVLTree} specialised for primitive longs in natural order: values live directly
+ * in the nodes, so there is no Long per element and lookups never box.
+ */
+public class LongAVLTree implements ILongSortedSet {
+
+    class Node {
+
+        Node(long value) {
+            this.value = value;
+        }
+
+        long value;
+        Node left;
+        Node right;
+        Node parent;
+        int height;
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("N{");
+            sb.append("d=").append(value);
+            if (left != null) {
+                sb.append(", l=").append(left);
+            }
+            if (right != null) {
+                sb.append(", r=").append(right);
+            }
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    private Node root;
+    private int size;
+
+    @Override
+    public long first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        Node curr = root;
+        while (curr.left != null) {
+            curr = curr.left;
+        }
+        return curr.value;
+    }
+
+    @Override
+    public long last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        Node curr = root;
+        while (curr.right != null) {
+            curr = curr.right;
+        }
+        return curr.value;
+    }
+
+    @Override
+    public long[] inorderTraverse() {
+        long[] values = new long[size];
+        inorderTraverse(root, values, 0);
+        return values;
+    }
+
+    private int inorderTraverse(Node curr, long[] values, int pos) {
+        if (curr == null) {
+            return pos;
+        }
+        pos = inorderTraverse(curr.left, values, pos);
+        values[pos++] = curr.value;
+        return inorderTraverse(curr.right, values, pos);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    @Override
+    public boolean contains(long value) {
+        return find(value) != null;
+    }
+
+    private Node find(long value) {
+        Node curr = root;
+        while (curr != null && curr.value != value) {
+            curr = value < curr.value ? curr.left : curr.right;
+        }
+        return curr;
+    }
+
+    @Override
+    public boolean add(long value) {
+        if (root == null) {
+            root = new Node(value);
+            size++;
+            return true;
+        }
+        Node curr = root;
+        while (true) {
+            if (value < curr.value) {
+                if (curr.left == null) {
+                    curr.left = new Node(value);
+                    curr.left.parent = curr;
+                    break;
+                }
+                curr = curr.left;
+            } else if (value > curr.value) {
+                if (curr.right == null) {
+                    curr.right = new Node(value);
+                    curr.right.parent = curr;
+                    break;
+                }
+                curr = curr.right;
+            } else {
+                return false; //узел уже имеется
+            }
+        }
+        checkBalance(curr);
+        size++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(long value) {
+        Node q = find(value);
+        if (q == null) {
+            return false;
+        }
+        removeAVLNode(q);
+        size--;
+        return true;
+    }
+
+    private void removeAVLNode(Node q) {
+        Node r;
+        if (q.left == null || q.right == null) {
+            r = q;
+        } else {
+            r = q.right;
+            while (r.left != null) {
+                r = r.left;
+            }
+            q.value = r.value;
+        }
+        Node p = r.left != null ? r.left : r.right;
+        if (p != null) {
+            p.parent = r.parent;
+        }
+        if (r.parent == null) {
+            root = p;
+        } else {
+            if (r == r.parent.left) {
+                r.parent.left = p;
+            } else {
+                r.parent.right = p;
+            }
+            checkBalance(r.parent);
+        }
+    }
+
+    /**
+     * Walks up from current restoring heights and balance. Stops as soon as a subtree
+     * keeps its previous height, since nothing above it can be affected.
+     */
+    private void checkBalance(Node current) {
+        while (current != null) {
+            int oldHeight = current.height;
+            updateHeight(current);
+            int currentBalanceFactor = balanceFactor(current);
+            if (currentBalanceFactor < -1) {
+                if (height(current.left.left) < height(current.left.right)) {
+                    rotateLeft(current.left);
+                }
+                current = rotateRight(current);
+            } else if (currentBalanceFactor > 1) {
+                if (height(current.right.right) < height(current.right.left)) {
+                    rotateRight(current.right);
+                }
+                current = rotateLeft(current);
+            }
+            if (current.height == oldHeight) {
+                return;
+            }
+            current = current.parent;
+        }
+    }
+
+    private int height(Node current) {
+        return current == null ? -1 : current.height;
+    }
+
+    private void updateHeight(Node current) {
+        current.height = 1 + Math.max(height(current.left), height(current.right));
+    }
+
+    private int balanceFactor(Node current) {
+        return height(current.right) - height(current.left);
+    }
+
+    private Node rotateLeft(Node n) {
+        Node v = n.right;
+        n.right = v.left;
+        if (v.left != null) {
+            v.left.parent = n;
+        }
+        v.parent = n.parent;
+        if (n.parent == null) {
+            root = v;
+        } else if (n.parent.left == n) {
+            n.parent.left = v;
+        } else {
+            n.parent.right = v;
+        }
+        v.left = n;
+        n.parent = v;
+        updateHeight(n);
+        updateHeight(v);
+        return v;
+    }
+
+    private Node rotateRight(Node n) {
+        Node v = n.left;
+        n.left = v.right;
+        if (v.right != null) {
+            v.right.parent = n;
+        }
+        v.parent = n.parent;
+        if (n.parent == null) {
+            root = v;
+        } else if (n.parent.right == n) {
+            n.parent.right = v;
+        } else {
+            n.parent.left = v;
+        }
+        v.right = n;
+        n.parent = v;
+        updateHeight(n);
+        updateHeight(v);
+        return v;
+    }
+
+    @Override
+    public String toString() {
+        return "BST{" + root + "}";
+    }
+}
@@ -0,0 +1,174 @@
+package ru.mail.polis;
+
+/**
+ * {@link OpenHashTable} specialised for primitive longs: the same Robin Hood probing and
+ * backward-shift removal over a single long[] table, with no boxing and no per-element allocation.
+ * <p>
+ * Zero marks a free slot, so the element 0 itself is kept in a separate flag.
+ */
+public class LongOpenHashSet implements ILongSet {
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final float DEFAULT_LOAD_FACTOR = 0.5f;
+    private static final long FREE = 0;
+
+    private final float loadFactor;
+    private long[] table;
+    private int mask;
+    private int threshold;
+    private int size;
+    private boolean containsFree;
+
+    public LongOpenHashSet() {
+        this(DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * @param loadFactor maximum ratio of size to capacity before the table is doubled, in (0, 1)
+     */
+    public LongOpenHashSet(float loadFactor) {
+        if (!(loadFactor > 0 && loadFactor < 1)) {
+            throw new IllegalArgumentException("load factor must be in (0, 1): " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(long value) {
+        if (value == FREE) {
+            return containsFree;
+        }
+        return indexOf(value) >= 0;
+    }
+
+    @Override
+    public boolean add(long value) {
+        if (value == FREE) {
+            if (containsFree) {
+                return false;
+            }
+            containsFree = true;
+            size++;
+            return true;
+        }
+        int idx = home(value);
+        int dist = 0;
+        while (true) {
+            long curr = table[idx];
+            if (curr == FREE) {
+                table[idx] = value;
+                break;
+            }
+            int currDist = distance(curr, idx);
+            if (currDist < dist) {
+                shiftIn(idx, value, dist);
+                break;
+            }
+            if (curr == value) {
+                return false;
+            }
+            idx = (idx + 1) & mask;
+            dist++;
+        }
+        if (++size > threshold) {
+            resize();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(long value) {
+        if (value == FREE) {
+            if (!containsFree) {
+                return false;
+            }
+            containsFree = false;
+            size--;
+            return true;
+        }
+        int idx = indexOf(value);
+        if (idx < 0) {
+            return false;
+        }
+        int next = (idx + 1) & mask;
+        while (table[next] != FREE && distance(table[next], next) > 0) {
+            table[idx] = table[next];
+            idx = next;
+            next = (next + 1) & mask;
+        }
+        table[idx] = FREE;
+        size--;
+        return true;
+    }
+
+    private int indexOf(long value) {
+        int idx = home(value);
+        int dist = 0;
+        while (true) {
+            long curr = table[idx];
+            if (curr == FREE || distance(curr, idx) < dist) {
+                return -1;
+            }
+            if (curr == value) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+            dist++;
+        }
+    }
+
+    private void shiftIn(int idx, long value, int dist) {
+        long carry = value;
+        while (true) {
+            long curr = table[idx];
+            if (curr == FREE) {
+                table[idx] = carry;
+                return;
+            }
+            int currDist = distance(curr, idx);
+            if (currDist < dist) {
+                table[idx] = carry;
+                carry = curr;
+                dist = currDist;
+            }
+            idx = (idx + 1) & mask;
+            dist++;
+        }
+    }
+
+    private void resize() {
+        long[] old = table;
+        allocate(old.length << 1);
+        for (long value : old) {
+            if (value != FREE) {
+                shiftIn(home(value), value, 0);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * loadFactor);
+    }
+
+    private int home(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int distance(long value, int idx) {
+        return (idx - home(value)) & mask;
+    }
+}
@@ -0,0 +1,974 @@
+package ru.mail.polis;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * Disk-resident sorted set: a B+-tree whose pages live in a memory-mapped file.
+ * <p>
+ * Keys are stored with a fixed-width {@link KeySerializer}, only in the leaves; inner pages
+ * hold separators and child page numbers. Leaves are linked both ways, so iteration and range
+ * scans read each leaf once. A lookup touches one page per level, and with 4 KiB pages and
+ * small keys three levels already hold hundreds of millions of keys.
+ * <p>
+ * Decoded pages are kept in an LRU cache of a fixed number of pages. Modified pages stay in
+ * memory until {@link #flush()}, which is atomic: the new page images are first written to a
+ * checksummed journal next to the file and forced to disk, and only then copied into the mapped
+ * file. If the process dies in between, the journal is replayed on the next open; a torn journal
+ * is discarded together with the unflushed changes. The file therefore always reflects the last
+ * completed flush. A flush also happens automatically between operations once the number of
+ * modified pages reaches the cache size, and on {@link #close()}.
+ * <p>
+ * The comparator, if any, must be the same every time the file is opened. Not thread-safe.
+ */
+public class MappedBPlusTree<E extends Comparable<E>> implements ISortedSet<E>, AutoCloseable {
+
+    private static final long MAGIC = 0x6250545265653031L;
+    private static final long JOURNAL_MAGIC = 0x62504A726E6C3031L;
+    private static final int VERSION = 1;
+    private static final int DEFAULT_PAGE_SIZE = 4096;
+    private static final int DEFAULT_CACHE_PAGES = 1024;
+    //файл отображается кусками по REGION_PAGES страниц: один MappedByteBuffer адресует не больше 2 ГиБ
+    private static final int REGION_PAGES = 4096;
+
+    private static final byte LEAF = 0;
+    private static final byte INNER = 1;
+    private static final byte FREE = 2;
+    //type(1) + count(2) + prev(4) + next(4)
+    private static final int PAGE_HEADER = 11;
+    //magic, version, pageSize, keySize, root, pageCount, freeHead, size
+    private static final int FILE_HEADER = 8 + 4 * 6 + 8;
+    //номер 0 занят заголовком файла, поэтому служит и пустой ссылкой
+    private static final int NONE = 0;
+
+    class Page {
+        final int id;
+        byte type;
+        int count;
+        final Object[] keys;
+        final int[] children;
+        int prev = NONE;
+        int next = NONE;
+
+        Page(int id, byte type) {
+            this.id = id;
+            this.type = type;
+            //на одно место больше ёмкости: переполненная страница делится уже после вставки
+            this.keys = new Object[Math.max(leafCapacity, innerCapacity) + 1];
+            this.children = type == INNER ? new int[innerCapacity + 2] : null;
+        }
+
+        @SuppressWarnings("unchecked")
+        E key(int i) {
+            return (E) keys[i];
+        }
+    }
+
+    private final Path file;
+    private final Path journal;
+    private final FileChannel channel;
+    private final KeySerializer<E> serializer;
+    private final Comparator<E> comparator;
+    private final int cachePages;
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+    private final LinkedHashMap<Integer, Page> clean = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, Page> dirty = new HashMap<>();
+    private final int pageSize;
+    private final int keySize;
+    private final int leafCapacity;
+    private final int innerCapacity;
+    private boolean headerDirty;
+    private boolean closed;
+
+    private int root;
+    private int pageCount;
+    private int freeHead;
+    private long size;
+
+    //результаты рекурсивных add/remove
+    private boolean modified;
+    private E splitKey;
+
+    /**
+     * Opens the tree stored in file, creating an empty one if the file does not exist or is empty.
+     */
+    public MappedBPlusTree(Path file, KeySerializer<E> serializer) throws IOException {
+        this(file, serializer, null, DEFAULT_PAGE_SIZE, DEFAULT_CACHE_PAGES);
+    }
+
+    public MappedBPlusTree(Path file, KeySerializer<E> serializer, Comparator<E> comparator) throws IOException {
+        this(file, serializer, comparator, DEFAULT_PAGE_SIZE, DEFAULT_CACHE_PAGES);
+    }
+
+    /**
+     * @param pageSize   page size in bytes for a new file, a power of two in [512, 65536];
+     *                   an existing file keeps the page size it was created with
+     * @param cachePages number of decoded pages kept in memory
+     */
+    public MappedBPlusTree(Path file, KeySerializer<E> serializer, Comparator<E> comparator,
+                           int pageSize, int cachePages) throws IOException {
+        if (pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("page size must be a power of two in [512, 65536]: " + pageSize);
+        }
+        if (cachePages < 16) {
+            throw new IllegalArgumentException("cache must hold at least 16 pages: " + cachePages);
+        }
+        this.file = file;
+        this.journal = file.resolveSibling(file.getFileName() + "-journal");
+        this.serializer = serializer;
+        this.comparator = comparator;
+        this.cachePages = cachePages;
+        this.keySize = serializer.size();
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            recover();
+            boolean created = channel.size() == 0;
+            this.pageSize = created ? pageSize : readHeader();
+            this.leafCapacity = (this.pageSize - PAGE_HEADER) / keySize;
+            this.innerCapacity = (this.pageSize - PAGE_HEADER - Integer.BYTES) / (keySize + Integer.BYTES);
+            if (innerCapacity < 3) {
+                throw new IllegalArgumentException("key of " + keySize + " bytes is too large for "
+                        + this.pageSize + " byte pages");
+            }
+            if (created) {
+                pageCount = 1;
+                root = allocate(LEAF).id;
+                flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int size() {
+        ensureOpen();
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the number of elements, which may exceed Integer.MAX_VALUE
+     */
+    public long longSize() {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        ensureOpen();
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        Page leaf = findLeaf(value);
+        boolean found = search(leaf, value) >= 0;
+        trimCache();
+        return found;
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        ensureOpen();
+        modified = false;
+        Page right = insert(page(root), value);
+        if (right != null) {
+            Page newRoot = allocate(INNER);
+            newRoot.keys[0] = splitKey;
+            newRoot.children[0] = root;
+            newRoot.children[1] = right.id;
+            newRoot.count = 1;
+            root = newRoot.id;
+        }
+        splitKey = null;
+        if (modified) {
+            size++;
+            headerDirty = true;
+        }
+        afterOperation();
+        return modified;
+    }
+
+    /**
+     * @return the new right sibling if p overflowed and was split, null otherwise;
+     * the separator for the parent is left in splitKey
+     */
+    private Page insert(Page p, E value) {
+        int idx = search(p, value);
+        if (p.type == LEAF) {
+            if (idx >= 0) {
+                return null;
+            }
+            modified = true;
+            modify(p);
+            insertAt(p.keys, p.count, -idx - 1, value);
+            p.count++;
+            return p.count > leafCapacity ? splitLeaf(p) : null;
+        }
+        int child = idx >= 0 ? idx + 1 : -idx - 1;
+        Page right = insert(page(p.children[child]), value);
+        if (right == null) {
+            return null;
+        }
+        modify(p);
+        insertAt(p.keys, p.count, child, splitKey);
+        insertAt(p.children, p.count + 1, child + 1, right.id);
+        p.count++;
+        return p.count > innerCapacity ? splitInner(p) : null;
+    }
+
+    private Page splitLeaf(Page p) {
+        Page right = allocate(LEAF);
+        int mid = p.count / 2;
+        right.count = p.count - mid;
+        System.arraycopy(p.keys, mid, right.keys, 0, right.count);
+        clear(p.keys, mid, p.count);
+        p.count = mid;
+        right.prev = p.id;
+        right.next = p.next;
+        if (p.next != NONE) {
+            Page next = page(p.next);
+            modify(next);
+            next.prev = right.id;
+        }
+        p.next = right.id;
+        splitKey = right.key(0);
+        return right;
+    }
+
+    private Page splitInner(Page p) {
+        Page right = allocate(INNER);
+        int mid = p.count / 2;
+        splitKey = p.key(mid);
+        right.count = p.count - mid - 1;
+        System.arraycopy(p.keys, mid + 1, right.keys, 0, right.count);
+        System.arraycopy(p.children, mid + 1, right.children, 0, right.count + 1);
+        clear(p.keys, mid, p.count);
+        p.count = mid;
+        return right;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        ensureOpen();
+        modified = false;
+        Page rootPage = page(root);
+        delete(rootPage, value);
+        if (rootPage.type == INNER && rootPage.count == 0) {
+            root = rootPage.children[0];
+            free(rootPage);
+        }
+        if (modified) {
+            size--;
+            headerDirty = true;
+        }
+        afterOperation();
+        return modified;
+    }
+
+    /**
+     * Separators equal to a removed key may stay in inner pages: they still route correctly.
+     */
+    private void delete(Page p, E value) {
+        int idx = search(p, value);
+        if (p.type == LEAF) {
+            if (idx >= 0) {
+                modified = true;
+                modify(p);
+                removeAt(p.keys, p.count, idx);
+                p.count--;
+            }
+            return;
+        }
+        int child = idx >= 0 ? idx + 1 : -idx - 1;
+        Page c = page(p.children[child]);
+        delete(c, value);
+        if (modified && c.count < minCount(c)) {
+            rebalance(p, child, c);
+        }
+    }
+
+    private int minCount(Page p) {
+        return p.type == LEAF ? leafCapacity / 2 : innerCapacity / 2;
+    }
+
+    /**
+     * Refills the underflowed child c = parent.children[i] by borrowing a key from a sibling
+     * that can spare one, or merges it with a sibling otherwise.
+     */
+    private void rebalance(Page parent, int i, Page c) {
+        Page left = i > 0 ? page(parent.children[i - 1]) : null;
+        Page right = i < parent.count ? page(parent.children[i + 1]) : null;
+        modify(parent);
+        modify(c);
+        if (left != null && left.count > minCount(left)) {
+            modify(left);
+            if (c.type == LEAF) {
+                insertAt(c.keys, c.count, 0, left.keys[left.count - 1]);
+                parent.keys[i - 1] = c.keys[0];
+            } else {
+                insertAt(c.keys, c.count, 0, parent.keys[i - 1]);
+                insertAt(c.children, c.count + 1, 0, left.children[left.count]);
+                parent.keys[i - 1] = left.keys[left.count - 1];
+            }
+            left.keys[--left.count] = null;
+            c.count++;
+        } else if (right != null && right.count > minCount(right)) {
+            modify(right);
+            if (c.type == LEAF) {
+                c.keys[c.count] = right.keys[0];
+                removeAt(right.keys, right.count, 0);
+                parent.keys[i] = right.keys[0];
+            } else {
+                c.keys[c.count] = parent.keys[i];
+                c.children[c.count + 1] = right.children[0];
+                parent.keys[i] = right.keys[0];
+                removeAt(right.keys, right.count, 0);
+                removeAt(right.children, right.count + 1, 0);
+            }
+            right.count--;
+            c.count++;
+        } else if (left != null) {
+            merge(parent, i - 1, left, c);
+        } else {
+            merge(parent, i, c, right);
+        }
+    }
+
+    /**
+     * Appends right = parent.children[k + 1] to left = parent.children[k] and frees right.
+     */
+    private void merge(Page parent, int k, Page left, Page right) {
+        modify(left);
+        if (left.type == LEAF) {
+            System.arraycopy(right.keys, 0, left.keys, left.count, right.count);
+            left.count += right.count;
+            left.next = right.next;
+            if (right.next != NONE) {
+                Page next = page(right.next);
+                modify(next);
+                next.prev = left.id;
+            }
+        } else {
+            left.keys[left.count] = parent.keys[k];
+            System.arraycopy(right.keys, 0, left.keys, left.count + 1, right.count);
+            System.arraycopy(right.children, 0, left.children, left.count + 1, right.count + 1);
+            left.count += right.count + 1;
+        }
+        removeAt(parent.keys, parent.count, k);
+        removeAt(parent.children, parent.count + 1, k + 1);
+        parent.count--;
+        free(right);
+    }
+
+    @Override
+    public E first() {
+        ensureOpen();
+        Page p = page(root);
+        while (p.type == INNER) {
+            p = page(p.children[0]);
+        }
+        trimCache();
+        if (p.count == 0) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return p.key(0);
+    }
+
+    @Override
+    public E last() {
+        ensureOpen();
+        Page p = page(root);
+        while (p.type == INNER) {
+            p = page(p.children[p.count]);
+        }
+        trimCache();
+        if (p.count == 0) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        return p.key(p.count - 1);
+    }
+
+    @Override
+    public List<E> inorderTraverse() {
+        List<E> list = new ArrayList<E>(size());
+        for (E value : this) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    @Override
+    public E floor(E value) {
+        Page leaf = findLeaf(value);
+        int idx = search(leaf, value);
+        return idx >= 0 ? leaf.key(idx) : before(leaf, -idx - 1);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        Page leaf = findLeaf(value);
+        int idx = search(leaf, value);
+        return at(leaf, idx >= 0 ? idx : -idx - 1);
+    }
+
+    @Override
+    public E higher(E value) {
+        Page leaf = findLeaf(value);
+        int idx = search(leaf, value);
+        return at(leaf, idx >= 0 ? idx + 1 : -idx - 1);
+    }
+
+    @Override
+    public E lower(E value) {
+        Page leaf = findLeaf(value);
+        int idx = search(leaf, value);
+        return before(leaf, idx >= 0 ? idx : -idx - 1);
+    }
+
+    /**
+     * @return the key at position pos of leaf, or the first key of a following leaf if pos is past the end
+     */
+    private E at(Page leaf, int pos) {
+        while (pos >= leaf.count) {
+            if (leaf.next == NONE) {
+                trimCache();
+                return null;
+            }
+            leaf = page(leaf.next);
+            pos = 0;
+        }
+        trimCache();
+        return leaf.key(pos);
+    }
+
+    /**
+     * @return the key just before position pos of leaf, possibly in a preceding leaf
+     */
+    private E before(Page leaf, int pos) {
+        while (pos == 0) {
+            if (leaf.prev == NONE) {
+                trimCache();
+                return null;
+            }
+            leaf = page(leaf.prev);
+            pos = leaf.count;
+        }
+        trimCache();
+        return leaf.key(pos - 1);
+    }
+
+    @Override
+    public Iterator<E> range(E from, E to) {
+        if (from == null || to == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (compare(from, to) > 0) {
+            throw new IllegalArgumentException("from is greater than to: " + from + ", " + to);
+        }
+        Page leaf = findLeaf(from);
+        int idx = search(leaf, from);
+        return new LeafIterator(leaf, idx >= 0 ? idx : -idx - 1, to);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        ensureOpen();
+        Page p = page(root);
+        while (p.type == INNER) {
+            p = page(p.children[0]);
+        }
+        return new LeafIterator(p, 0, null);
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        ensureOpen();
+        Page p = page(root);
+        while (p.type == INNER) {
+            p = page(p.children[p.count]);
+        }
+        return new DescendingIterator(p);
+    }
+
+    /**
+     * Walks the leaf chain forward, one page load per leaf.
+     */
+    private class LeafIterator implements Iterator<E> {
+        private Page leaf;
+        private int pos;
+        //исключающая верхняя граница, null - без границы
+        private final E to;
+
+        LeafIterator(Page leaf, int pos, E to) {
+            this.leaf = leaf;
+            this.pos = pos;
+            this.to = to;
+            skipExhausted();
+        }
+
+        private void skipExhausted() {
+            while (leaf != null && pos >= leaf.count) {
+                leaf = leaf.next == NONE ? null : page(leaf.next);
+                pos = 0;
+            }
+            if (leaf != null && to != null && compare(leaf.key(pos), to) >= 0) {
+                leaf = null;
+            }
+            trimCache();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null;
+        }
+
+        @Override
+        public E next() {
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            E value = leaf.key(pos++);
+            skipExhausted();
+            return value;
+        }
+    }
+
+    /**
+     * Walks the leaf chain backward.
+     */
+    private class DescendingIterator implements Iterator<E> {
+        private Page leaf;
+        private int pos;
+
+        DescendingIterator(Page last) {
+            this.leaf = last;
+            this.pos = last.count;
+            skipExhausted();
+        }
+
+        private void skipExhausted() {
+            while (leaf != null && pos == 0) {
+                leaf = leaf.prev == NONE ? null : page(leaf.prev);
+                pos = leaf == null ? 0 : leaf.count;
+            }
+            trimCache();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null;
+        }
+
+        @Override
+        public E next() {
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            E value = leaf.key(--pos);
+            skipExhausted();
+            return value;
+        }
+    }
+
+    private Page findLeaf(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        ensureOpen();
+        Page p = page(root);
+        while (p.type == INNER) {
+            int idx = search(p, value);
+            p = page(p.children[idx >= 0 ? idx + 1 : -idx - 1]);
+        }
+        return p;
+    }
+
+    /**
+     * @return index of value among the keys of p, or (-(insertion point) - 1) as in Arrays.binarySearch
+     */
+    private int search(Page p, E value) {
+        int lo = 0;
+        int hi = p.count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(p.key(mid), value);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private static void insertAt(Object[] a, int length, int idx, Object value) {
+        System.arraycopy(a, idx, a, idx + 1, length - idx);
+        a[idx] = value;
+    }
+
+    private static void insertAt(int[] a, int length, int idx, int value) {
+        System.arraycopy(a, idx, a, idx + 1, length - idx);
+        a[idx] = value;
+    }
+
+    private static void removeAt(Object[] a, int length, int idx) {
+        System.arraycopy(a, idx + 1, a, idx, length - idx - 1);
+        a[length - 1] = null;
+    }
+
+    private static void removeAt(int[] a, int length, int idx) {
+        System.arraycopy(a, idx + 1, a, idx, length - idx - 1);
+    }
+
+    private static void clear(Object[] a, int from, int to) {
+        for (int i = from; i < to; i++) {
+            a[i] = null;
+        }
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    // ---------------------------------------------------------------- страницы и кэш
+
+    private Page page(int id) {
+        Page p = dirty.get(id);
+        if (p == null) {
+            p = clean.get(id);
+            if (p == null) {
+                p = load(id);
+                clean.put(id, p);
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Pins p in memory until the next flush.
+     */
+    private void modify(Page p) {
+        if (dirty.put(p.id, p) == null) {
+            clean.remove(p.id);
+        }
+    }
+
+    private Page allocate(byte type) {
+        int id;
+        if (freeHead != NONE) {
+            id = freeHead;
+            freeHead = page(id).next;
+            clean.remove(id);
+        } else {
+            id = pageCount++;
+        }
+        Page p = new Page(id, type);
+        dirty.put(id, p);
+        headerDirty = true;
+        return p;
+    }
+
+    private void free(Page p) {
+        clean.remove(p.id);
+        Page freed = new Page(p.id, FREE);
+        freed.next = freeHead;
+        dirty.put(p.id, freed);
+        freeHead = p.id;
+        headerDirty = true;
+    }
+
+    /**
+     * Called at the end of every update. Evicting or flushing in the middle of one would be
+     * unsafe: a split or merge holds several pages and may leave the tree inconsistent until it
+     * is done.
+     */
+    private void afterOperation() {
+        if (dirty.size() >= cachePages) {
+            flush();
+        }
+        trimCache();
+    }
+
+    private void trimCache() {
+        Iterator<Page> it = clean.values().iterator();
+        while (clean.size() > cachePages && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private Page load(int id) {
+        ByteBuffer buf = pageBuffer(id);
+        Page p = new Page(id, buf.get(0));
+        p.count = buf.getShort(1) & 0xFFFF;
+        p.prev = buf.getInt(3);
+        p.next = buf.getInt(7);
+        if (p.type == FREE) {
+            return p;
+        }
+        for (int i = 0; i < p.count; i++) {
+            int pos = keyOffset(p.type, i);
+            buf.limit(pos + keySize).position(pos);
+            p.keys[i] = serializer.read(buf);
+            buf.limit(pageSize);
+        }
+        if (p.type == INNER) {
+            for (int i = 0; i <= p.count; i++) {
+                p.children[i] = buf.getInt(PAGE_HEADER + i * Integer.BYTES);
+            }
+        }
+        return p;
+    }
+
+    private byte[] encode(Page p) {
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        buf.put(0, p.type).putShort(1, (short) p.count).putInt(3, p.prev).putInt(7, p.next);
+        if (p.type == FREE) {
+            return buf.array();
+        }
+        for (int i = 0; i < p.count; i++) {
+            int pos = keyOffset(p.type, i);
+            buf.limit(pos + keySize).position(pos);
+            serializer.write(p.key(i), buf);
+            buf.limit(pageSize);
+        }
+        if (p.type == INNER) {
+            for (int i = 0; i <= p.count; i++) {
+                buf.putInt(PAGE_HEADER + i * Integer.BYTES, p.children[i]);
+            }
+        }
+        return buf.array();
+    }
+
+    /**
+     * Leaves store keys right after the page header; inner pages store innerCapacity + 1 child
+     * numbers first and the keys after them.
+     */
+    private int keyOffset(byte type, int i) {
+        int base = type == LEAF ? PAGE_HEADER : PAGE_HEADER + (innerCapacity + 1) * Integer.BYTES;
+        return base + i * keySize;
+    }
+
+    /**
+     * @return view of the mapped page with position 0 and limit pageSize
+     */
+    private ByteBuffer pageBuffer(int id) {
+        ByteBuffer buf = region(id / REGION_PAGES).duplicate();
+        int pos = (id % REGION_PAGES) * pageSize;
+        buf.limit(pos + pageSize).position(pos);
+        return buf.slice();
+    }
+
+    private MappedByteBuffer region(int i) {
+        try {
+            while (regions.size() <= i) {
+                long regionBytes = (long) REGION_PAGES * pageSize;
+                regions.add(channel.map(FileChannel.MapMode.READ_WRITE, regions.size() * regionBytes, regionBytes));
+            }
+            return regions.get(i);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------- запись на диск
+
+    /**
+     * Atomically writes all changes made since the previous flush to the file.
+     *
+     * @throws UncheckedIOException if writing fails; the file then still holds the previous state
+     */
+    public void flush() {
+        ensureOpen();
+        if (dirty.isEmpty() && !headerDirty) {
+            return;
+        }
+        List<Integer> ids = new ArrayList<>(dirty.size() + 1);
+        List<byte[]> images = new ArrayList<>(dirty.size() + 1);
+        ids.add(0);
+        images.add(encodeHeader());
+        for (Page p : dirty.values()) {
+            ids.add(p.id);
+            images.add(encode(p));
+        }
+        try {
+            writeJournal(ids, images);
+            boolean[] touched = new boolean[regions.size() + pageCount / REGION_PAGES + 1];
+            for (int i = 0; i < ids.size(); i++) {
+                int id = ids.get(i);
+                ByteBuffer buf = region(id / REGION_PAGES).duplicate();
+                buf.position((id % REGION_PAGES) * pageSize);
+                buf.put(images.get(i));
+                touched[id / REGION_PAGES] = true;
+            }
+            for (int i = 0; i < touched.length; i++) {
+                if (touched[i]) {
+                    regions.get(i).force();
+                }
+            }
+            try (FileChannel j = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+                j.truncate(0);
+                j.force(true);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        clean.putAll(dirty);
+        dirty.clear();
+        headerDirty = false;
+        trimCache();
+    }
+
+    /**
+     * Journal layout: magic, page size, record count, records of (page number, page image),
+     * CRC32 of everything before it.
+     */
+    private void writeJournal(List<Integer> ids, List<byte[]> images) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8 + 4 + 4 + ids.size() * (4 + pageSize) + 8);
+        buf.putLong(JOURNAL_MAGIC).putInt(pageSize).putInt(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            buf.putInt(ids.get(i)).put(images.get(i));
+        }
+        buf.putLong(crc(buf.array(), buf.position()));
+        buf.flip();
+        try (FileChannel j = FileChannel.open(journal, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                j.write(buf);
+            }
+            j.force(true);
+        }
+    }
+
+    /**
+     * Replays a complete journal left by an interrupted flush; an incomplete one means the
+     * file itself was never touched, and is dropped.
+     */
+    private void recover() throws IOException {
+        if (!Files.exists(journal)) {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(journal);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        if (bytes.length >= 24 && buf.getLong(0) == JOURNAL_MAGIC) {
+            int journalPageSize = buf.getInt(8);
+            int count = buf.getInt(12);
+            long expected = 16 + (long) count * (4 + journalPageSize) + 8;
+            if (expected == bytes.length && buf.getLong(bytes.length - 8) == crc(bytes, bytes.length - 8)) {
+                buf.position(16);
+                for (int i = 0; i < count; i++) {
+                    long offset = (long) buf.getInt() * journalPageSize;
+                    ByteBuffer image = buf.slice();
+                    image.limit(journalPageSize);
+                    while (image.hasRemaining()) {
+                        offset += channel.write(image, offset);
+                    }
+                    buf.position(buf.position() + journalPageSize);
+                }
+                channel.force(true);
+            }
+        }
+        Files.delete(journal);
+    }
+
+    private byte[] encodeHeader() {
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        buf.putLong(MAGIC).putInt(VERSION).putInt(pageSize).putInt(keySize)
+                .putInt(root).putInt(pageCount).putInt(freeHead).putLong(size);
+        buf.putLong(crc(buf.array(), FILE_HEADER));
+        return buf.array();
+    }
+
+    /**
+     * @return page size of the file
+     */
+    private int readHeader() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(FILE_HEADER + 8);
+        while (buf.hasRemaining() && channel.read(buf, buf.position()) >= 0) {
+            // читаем до конца заголовка
+        }
+        if (buf.hasRemaining() || buf.getLong(0) != MAGIC
+                || buf.getLong(FILE_HEADER) != crc(buf.array(), FILE_HEADER)) {
+            throw new IOException("not a B+-tree file or header is corrupted: " + file);
+        }
+        buf.position(8);
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported file version " + version + ": " + file);
+        }
+        int filePageSize = buf.getInt();
+        int fileKeySize = buf.getInt();
+        if (fileKeySize != keySize) {
+            throw new IllegalArgumentException("file has keys of " + fileKeySize
+                    + " bytes, serializer writes " + keySize);
+        }
+        root = buf.getInt();
+        pageCount = buf.getInt();
+        freeHead = buf.getInt();
+        size = buf.getLong();
+        return filePageSize;
+    }
+
+    private static long crc(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return crc.getValue();
+    }
+
+    /**
+     * Flushes pending changes and releases the file. Closing twice is allowed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            regions.clear();
+            clean.clear();
+            dirty.clear();
+            channel.close();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("tree is closed: " + file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BPlusTree" + inorderTraverse();
+    }
+}
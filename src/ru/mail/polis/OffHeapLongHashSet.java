@@ -0,0 +1,273 @@
+package ru.mail.polis;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Open-addressing set of longs kept outside of the Java heap, for sets too large for
+ * {@link LongOpenHashSet}: the table lives in direct buffers, so the garbage collector sees a
+ * handful of buffer objects instead of the keys, and capacity is not bounded by array size.
+ * <p>
+ * Linear probing with backward-shift removal, no tombstones. The table is split into segments
+ * of at most 2^27 slots (1 GiB) because a single ByteBuffer is indexed by int. Zero marks a
+ * free slot, so the element 0 itself is kept in a separate flag.
+ * <p>
+ * The memory is released by {@link #close()}; after that every operation throws
+ * IllegalStateException. A set that is never closed is released when its buffers are
+ * collected. Not thread-safe.
+ */
+public class OffHeapLongHashSet implements ILongSet, AutoCloseable {
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final float DEFAULT_LOAD_FACTOR = 0.5f;
+    private static final long FREE = 0;
+    private static final int SEGMENT_SHIFT = 27;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final long MAX_CAPACITY = 1L << 62;
+
+    private final float loadFactor;
+    private ByteBuffer[] segments;
+    private long mask;
+    private long threshold;
+    private long size;
+    private boolean containsFree;
+
+    public OffHeapLongHashSet() {
+        this(0, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * @param expectedSize number of elements the set can hold without resizing; a resize needs
+     *                     the old and the new table at once, so presizing halves the peak footprint
+     * @param loadFactor   maximum ratio of size to capacity before the table is doubled, in (0, 1)
+     */
+    public OffHeapLongHashSet(long expectedSize, float loadFactor) {
+        if (!(loadFactor > 0 && loadFactor < 1)) {
+            throw new IllegalArgumentException("load factor must be in (0, 1): " + loadFactor);
+        }
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expected size is negative: " + expectedSize);
+        }
+        this.loadFactor = loadFactor;
+        long capacity = INITIAL_CAPACITY;
+        while (capacity * loadFactor < expectedSize) {
+            if (capacity == MAX_CAPACITY) {
+                throw new IllegalArgumentException("expected size is too large: " + expectedSize);
+            }
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @return the number of elements, which may exceed Integer.MAX_VALUE
+     */
+    public long longSize() {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(longSize(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return longSize() == 0;
+    }
+
+    /**
+     * @return bytes of native memory held by the table
+     */
+    public long capacityBytes() {
+        ensureOpen();
+        return (mask + 1) << 3;
+    }
+
+    @Override
+    public boolean contains(long value) {
+        ensureOpen();
+        if (value == FREE) {
+            return containsFree;
+        }
+        return indexOf(value) >= 0;
+    }
+
+    @Override
+    public boolean add(long value) {
+        ensureOpen();
+        if (value == FREE) {
+            if (containsFree) {
+                return false;
+            }
+            containsFree = true;
+            size++;
+            return true;
+        }
+        long idx = home(value);
+        while (true) {
+            long curr = get(idx);
+            if (curr == FREE) {
+                set(idx, value);
+                break;
+            }
+            if (curr == value) {
+                return false;
+            }
+            idx = (idx + 1) & mask;
+        }
+        if (++size > threshold) {
+            resize();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(long value) {
+        ensureOpen();
+        if (value == FREE) {
+            if (!containsFree) {
+                return false;
+            }
+            containsFree = false;
+            size--;
+            return true;
+        }
+        long idx = indexOf(value);
+        if (idx < 0) {
+            return false;
+        }
+        //сдвигаем назад элементы кластера, чей домашний слот не лежит в (idx, next]
+        long next = (idx + 1) & mask;
+        while (true) {
+            long curr = get(next);
+            if (curr == FREE) {
+                break;
+            }
+            long home = home(curr);
+            if (((next - home) & mask) >= ((next - idx) & mask)) {
+                set(idx, curr);
+                idx = next;
+            }
+            next = (next + 1) & mask;
+        }
+        set(idx, FREE);
+        size--;
+        return true;
+    }
+
+    /**
+     * Releases the native memory. Closing twice is allowed.
+     */
+    @Override
+    public void close() {
+        ByteBuffer[] old = segments;
+        segments = null;
+        if (old != null) {
+            free(old);
+        }
+    }
+
+    private long indexOf(long value) {
+        long idx = home(value);
+        while (true) {
+            long curr = get(idx);
+            if (curr == FREE) {
+                return -1;
+            }
+            if (curr == value) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    private void resize() {
+        ByteBuffer[] old = segments;
+        long oldCapacity = mask + 1;
+        if (oldCapacity == MAX_CAPACITY) {
+            throw new IllegalStateException("set is full");
+        }
+        allocate(oldCapacity << 1);
+        for (ByteBuffer segment : old) {
+            for (int pos = 0; pos < segment.capacity(); pos += Long.BYTES) {
+                long value = segment.getLong(pos);
+                if (value != FREE) {
+                    long idx = home(value);
+                    while (get(idx) != FREE) {
+                        idx = (idx + 1) & mask;
+                    }
+                    set(idx, value);
+                }
+            }
+        }
+        free(old);
+    }
+
+    private void allocate(long capacity) {
+        int count = (int) Math.max(1, capacity >>> SEGMENT_SHIFT);
+        int slotsPerSegment = (int) Math.min(capacity, 1L << SEGMENT_SHIFT);
+        ByteBuffer[] fresh = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            //allocateDirect заполняет память нулями, то есть FREE
+            fresh[i] = ByteBuffer.allocateDirect(slotsPerSegment << 3).order(ByteOrder.nativeOrder());
+        }
+        segments = fresh;
+        mask = capacity - 1;
+        threshold = (long) (capacity * (double) loadFactor);
+    }
+
+    private long get(long idx) {
+        return segments[(int) (idx >>> SEGMENT_SHIFT)].getLong((int) (idx & SEGMENT_MASK) << 3);
+    }
+
+    private void set(long idx, long value) {
+        segments[(int) (idx >>> SEGMENT_SHIFT)].putLong((int) (idx & SEGMENT_MASK) << 3, value);
+    }
+
+    private long home(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (h ^ (h >>> 32)) & mask;
+    }
+
+    private void ensureOpen() {
+        if (segments == null) {
+            throw new IllegalStateException("set is closed");
+        }
+    }
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            //до Java 9 метода нет: память вернётся, когда буферы соберёт GC
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private static void free(ByteBuffer[] buffers) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        for (ByteBuffer buffer : buffers) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e) {
+                return;
+            }
+        }
+    }
+}
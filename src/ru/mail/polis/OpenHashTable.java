@@ -1,42 +1,351 @@
 package ru.mail.polis;
 
 import java.util.Comparator;
+import java.util.function.Consumer;
 
-//TODO: write code here
+/**
+ * Open addressing hash set over a single flat array.
+ * <p>
+ * Collisions are resolved by linear probing with Robin Hood displacement: an element that is
+ * further from its home slot takes the place of a "richer" one, which keeps probe sequences short
+ * and lets unsuccessful lookups stop early. Removal uses backward shift, so no tombstones are left
+ * behind. The capacity is always a power of two (initially 8) and indices are taken by mask
+ * from the hash of a {@link HashStrategy}. The hash of every element is kept next to it, so
+ * displacement checks and rehashing never compute it again, and elements with different hashes
+ * are never compared.
+ * <p>
+ * If a comparator is supplied it defines element equality, so it must be consistent with
+ * {@link Object#hashCode()} of the elements.
+ */
 public class OpenHashTable<E extends Comparable<E>> implements ISet<E> {
 
-    private Comparator<E> comparator;
+    private static final int INITIAL_CAPACITY = 8;
+    private static final float DEFAULT_LOAD_FACTOR = 0.5f;
+    //число ключей containsBatch, домашние слоты которых читаются подряд
+    private static final int BATCH_GROUP = 16;
+
+    private final Comparator<E> comparator;
+    //null - метрики не собираются
+    private SetMetrics metrics;
+    private final float loadFactor;
+    private final HashStrategy<? super E> strategy;
+    private Object[] table;
+    //hashes[i] - хеш элемента table[i]
+    private int[] hashes;
+    private int mask;
+    private int threshold;
+    private int size;
 
     public OpenHashTable() {
         this(null);
     }
 
     public OpenHashTable(Comparator<E> comparator) {
+        this(comparator, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * @param loadFactor maximum ratio of size to capacity before the table is doubled, in (0, 1)
+     */
+    public OpenHashTable(Comparator<E> comparator, float loadFactor) {
+        this(comparator, loadFactor, 0);
+    }
+
+    /**
+     * @param loadFactor   maximum ratio of size to capacity before the table is doubled, in (0, 1)
+     * @param expectedSize number of elements the table can hold without resizing
+     */
+    public OpenHashTable(Comparator<E> comparator, float loadFactor, int expectedSize) {
+        this(comparator, loadFactor, expectedSize, HashStrategy.FIBONACCI);
+    }
+
+    /**
+     * @param strategy hash function of the elements, see {@link CollisionReport} for choosing
+     *                 one; {@link HashStrategy#FIBONACCI} by default
+     */
+    public OpenHashTable(Comparator<E> comparator, float loadFactor, int expectedSize,
+                         HashStrategy<? super E> strategy) {
+        if (strategy == null) {
+            throw new NullPointerException("strategy is null");
+        }
+        if (!(loadFactor > 0 && loadFactor < 1)) {
+            throw new IllegalArgumentException("load factor must be in (0, 1): " + loadFactor);
+        }
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expected size is negative: " + expectedSize);
+        }
         this.comparator = comparator;
+        this.loadFactor = loadFactor;
+        this.strategy = strategy;
+        int capacity = INITIAL_CAPACITY;
+        while ((int) (capacity * loadFactor) < expectedSize && capacity < 1 << 30) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Starts (or, with null, stops) collecting metrics of this table.
+     */
+    public void setMetrics(SetMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the attached metrics, null if none
+     */
+    public SetMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void beginOperation() {
+        if (metrics != null) {
+            metrics.beginOperation();
+        }
+    }
+
+    //length - число просмотренных слотов
+    private void probed(int length) {
+        if (metrics != null) {
+            metrics.probed(length);
+        }
     }
 
     @Override
     public int size() {
-        return 0;
+        return size;
     }
 
     @Override
     public boolean isEmpty() {
-        return false;
+        return size == 0;
     }
 
     @Override
     public boolean contains(E value) {
-        return false;
+        beginOperation();
+        return indexOf(value) >= 0;
     }
 
     @Override
     public boolean add(E value) {
-        return false;
+        beginOperation();
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = hash(value);
+        int idx = h & mask;
+        int dist = 0;
+        while (true) {
+            if (table[idx] == null) {
+                table[idx] = value;
+                hashes[idx] = h;
+                probed(dist + 1);
+                break;
+            }
+            int currDist = distance(idx);
+            if (currDist < dist) {
+                //по инварианту Robin Hood дальше value быть не может
+                shiftIn(idx, value, h, dist);
+                probed(dist + 1);
+                break;
+            }
+            if (currDist == dist && hashes[idx] == h && compare(elementAt(idx), value) == 0) {
+                probed(dist + 1);
+                return false;
+            }
+            idx = (idx + 1) & mask;
+            dist++;
+        }
+        if (++size > threshold) {
+            resize();
+        }
+        return true;
     }
 
     @Override
     public boolean remove(E value) {
-        return false;
+        beginOperation();
+        int idx = indexOf(value);
+        if (idx < 0) {
+            return false;
+        }
+        //backward shift: подтягиваем хвост кластера на одну позицию назад
+        int next = (idx + 1) & mask;
+        while (table[next] != null && distance(next) > 0) {
+            table[idx] = table[next];
+            hashes[idx] = hashes[next];
+            idx = next;
+            next = (next + 1) & mask;
+        }
+        table[idx] = null;
+        size--;
+        return true;
+    }
+
+    /**
+     * Looks the keys up in groups of BATCH_GROUP: first the home slots of all the keys of a
+     * group are read, then the probes are finished. The reads of a group do not depend on each
+     * other, so their cache misses overlap instead of being paid one after another.
+     */
+    @Override
+    public void containsBatch(E[] keys, boolean[] out) {
+        beginOperation();
+        Batches.checkBatch(keys, out);
+        int[] keyHashes = new int[BATCH_GROUP];
+        for (int from = 0; from < keys.length; from += BATCH_GROUP) {
+            int to = Math.min(keys.length, from + BATCH_GROUP);
+            for (int i = from; i < to; i++) {
+                keyHashes[i - from] = hash(keys[i]);
+                //пустой домашний слот - ответ без сравнений
+                out[i] = table[keyHashes[i - from] & mask] != null;
+            }
+            for (int i = from; i < to; i++) {
+                if (out[i]) {
+                    out[i] = indexOf(keys[i], keyHashes[i - from]) >= 0;
+                } else {
+                    probed(1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Grows the table once for all the values instead of doubling it step by step.
+     */
+    @Override
+    public int addAll(E[] values) {
+        Batches.checkValues(values);
+        int capacity = table.length;
+        //как HashMap.putAll: в расчёте на то, что все значения новые
+        while ((int) (capacity * loadFactor) < (long) size + values.length && capacity < 1 << 30) {
+            capacity <<= 1;
+        }
+        if (capacity != table.length) {
+            rehash(capacity);
+        }
+        int added = 0;
+        for (E value : values) {
+            if (add(value)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    private int indexOf(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return indexOf(value, hash(value));
+    }
+
+    private int indexOf(E value, int h) {
+        int idx = h & mask;
+        int dist = 0;
+        while (true) {
+            if (table[idx] == null) {
+                probed(dist + 1);
+                return -1;
+            }
+            int currDist = distance(idx);
+            if (currDist < dist) {
+                probed(dist + 1);
+                return -1;
+            }
+            if (currDist == dist && hashes[idx] == h && compare(elementAt(idx), value) == 0) {
+                probed(dist + 1);
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+            dist++;
+        }
+    }
+
+    /**
+     * Places an element known to be absent starting from slot idx, displacing richer elements.
+     */
+    private void shiftIn(int idx, Object value, int h, int dist) {
+        Object carry = value;
+        int carryHash = h;
+        while (true) {
+            Object curr = table[idx];
+            if (curr == null) {
+                table[idx] = carry;
+                hashes[idx] = carryHash;
+                return;
+            }
+            int currDist = distance(idx);
+            if (currDist < dist) {
+                int currHash = hashes[idx];
+                table[idx] = carry;
+                hashes[idx] = carryHash;
+                carry = curr;
+                carryHash = currHash;
+                dist = currDist;
+            }
+            idx = (idx + 1) & mask;
+            dist++;
+        }
+    }
+
+    private void resize() {
+        rehash(table.length << 1);
+    }
+
+    private void rehash(int capacity) {
+        if (metrics != null) {
+            metrics.beginResize();
+        }
+        Object[] old = table;
+        int[] oldHashes = hashes;
+        allocate(capacity);
+        for (int i = 0; i < old.length; i++) {
+            if (old[i] != null) {
+                shiftIn(oldHashes[i] & mask, old[i], oldHashes[i], 0);
+            }
+        }
+        if (metrics != null) {
+            metrics.endResize(this, old.length, capacity);
+        }
+    }
+
+    /**
+     * Passes every element to the action in slot order.
+     */
+    void forEachValue(Consumer<? super E> action) {
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] != null) {
+                action.accept(elementAt(i));
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        table = new Object[capacity];
+        hashes = new int[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * loadFactor);
+    }
+
+    private int hash(E value) {
+        return strategy.hash(value);
+    }
+
+    //расстояние элемента слота idx от его домашнего слота
+    private int distance(int idx) {
+        return (idx - hashes[idx]) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elementAt(int idx) {
+        return (E) table[idx];
+    }
+
+    private int compare(E v1, E v2) {
+        if (metrics != null) {
+            metrics.compared();
+        }
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
     }
 }
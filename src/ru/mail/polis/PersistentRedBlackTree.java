@@ -0,0 +1,484 @@
+package ru.mail.polis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable red-black tree. {@link #plus(Comparable)} and {@link #minus(Comparable)} return a new
+ * version that copies only the O(log n) nodes on the search path and shares every other subtree
+ * with this one, so any number of versions can be read concurrently without locks or copying.
+ * <p>
+ * Insertion follows Okasaki, deletion follows S. Kahrs, "Red-black trees with types" (2001);
+ * there are no parent links, since a shared node can have many parents.
+ * <p>
+ * The mutators of {@link ISet} throw UnsupportedOperationException; see
+ * {@link SnapshotRedBlackTree} for a mutable set built on top of this class.
+ */
+public final class PersistentRedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private static final boolean BLACK = false;
+    private static final boolean RED = true;
+
+    /**
+     * Static, unlike the nodes of the mutable trees: an inner node would keep alive the version
+     * that created it, and with it every older version.
+     */
+    static final class Node<E> {
+        final E value;
+        final Node<E> left;
+        final Node<E> right;
+        final boolean color;
+
+        Node(boolean color, Node<E> left, E value, Node<E> right) {
+            this.color = color;
+            this.left = left;
+            this.value = value;
+            this.right = right;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("N{");
+            sb.append("d=").append(value);
+            if (left != null) {
+                sb.append(", l=").append(left);
+            }
+            if (right != null) {
+                sb.append(", r=").append(right);
+            }
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    private final Node<E> root;
+    private final int size;
+    private final Comparator<E> comparator;
+
+    public PersistentRedBlackTree() {
+        this(null);
+    }
+
+    /**
+     * Creates an empty tree.
+     */
+    public PersistentRedBlackTree(Comparator<E> comparator) {
+        this(null, 0, comparator);
+    }
+
+    private PersistentRedBlackTree(Node<E> root, int size, Comparator<E> comparator) {
+        this.root = root;
+        this.size = size;
+        this.comparator = comparator;
+    }
+
+    /**
+     * @return a version that also contains value, or this one if it already does
+     * @throws NullPointerException if value is null
+     */
+    public PersistentRedBlackTree<E> plus(E value) {
+        if (contains(value)) {
+            return this;
+        }
+        return new PersistentRedBlackTree<>(blacken(insert(root, value)), size + 1, comparator);
+    }
+
+    /**
+     * @return a version without value, or this one if it does not contain it
+     * @throws NullPointerException if value is null
+     */
+    public PersistentRedBlackTree<E> minus(E value) {
+        if (!contains(value)) {
+            return this;
+        }
+        return new PersistentRedBlackTree<>(blacken(delete(root, value)), size - 1, comparator);
+    }
+
+    private Node<E> insert(Node<E> n, E value) {
+        if (n == null) {
+            return new Node<>(RED, null, value, null);
+        }
+        //value точно отсутствует, равенства не бывает
+        boolean toLeft = compare(value, n.value) < 0;
+        if (n.color == BLACK) {
+            return toLeft ? balance(insert(n.left, value), n.value, n.right)
+                    : balance(n.left, n.value, insert(n.right, value));
+        }
+        return toLeft ? red(insert(n.left, value), n.value, n.right)
+                : red(n.left, n.value, insert(n.right, value));
+    }
+
+    /**
+     * Removes a value that is present in the subtree. A black subtree loses one unit of black
+     * height and is repaired by balanceLeft/balanceRight on the way up.
+     */
+    private Node<E> delete(Node<E> n, E value) {
+        int cmp = compare(value, n.value);
+        if (cmp < 0) {
+            return isBlack(n.left) ? balanceLeft(delete(n.left, value), n.value, n.right)
+                    : red(delete(n.left, value), n.value, n.right);
+        } else if (cmp > 0) {
+            return isBlack(n.right) ? balanceRight(n.left, n.value, delete(n.right, value))
+                    : red(n.left, n.value, delete(n.right, value));
+        }
+        return fuse(n.left, n.right);
+    }
+
+    /**
+     * Rebuilds a black node whose children may carry a red-red violation.
+     */
+    private static <E> Node<E> balance(Node<E> a, E x, Node<E> b) {
+        if (isRed(a) && isRed(b)) {
+            return red(blacken(a), x, blacken(b));
+        }
+        if (isRed(a)) {
+            if (isRed(a.left)) {
+                return red(blacken(a.left), a.value, black(a.right, x, b));
+            }
+            if (isRed(a.right)) {
+                return red(black(a.left, a.value, a.right.left), a.right.value, black(a.right.right, x, b));
+            }
+        }
+        if (isRed(b)) {
+            if (isRed(b.right)) {
+                return red(black(a, x, b.left), b.value, blacken(b.right));
+            }
+            if (isRed(b.left)) {
+                return red(black(a, x, b.left.left), b.left.value, black(b.left.right, b.value, b.right));
+            }
+        }
+        return black(a, x, b);
+    }
+
+    /**
+     * The left subtree is one black level short.
+     */
+    private static <E> Node<E> balanceLeft(Node<E> left, E x, Node<E> right) {
+        if (isRed(left)) {
+            return red(blacken(left), x, right);
+        }
+        if (isBlack(right)) {
+            return balance(left, x, redden(right));
+        }
+        if (isRed(right) && isBlack(right.left)) {
+            return red(black(left, x, right.left.left), right.left.value,
+                    balance(right.left.right, right.value, redden(right.right)));
+        }
+        throw new IllegalStateException("red-black invariant violated");
+    }
+
+    /**
+     * The right subtree is one black level short.
+     */
+    private static <E> Node<E> balanceRight(Node<E> left, E x, Node<E> right) {
+        if (isRed(right)) {
+            return red(left, x, blacken(right));
+        }
+        if (isBlack(left)) {
+            return balance(redden(left), x, right);
+        }
+        if (isRed(left) && isBlack(left.right)) {
+            return red(balance(redden(left.left), left.value, left.right.left), left.right.value,
+                    black(left.right.right, x, right));
+        }
+        throw new IllegalStateException("red-black invariant violated");
+    }
+
+    /**
+     * Joins the two subtrees of a removed node, all of a being less than all of b.
+     */
+    private static <E> Node<E> fuse(Node<E> a, Node<E> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (isRed(a) && isRed(b)) {
+            Node<E> bc = fuse(a.right, b.left);
+            if (isRed(bc)) {
+                return red(red(a.left, a.value, bc.left), bc.value, red(bc.right, b.value, b.right));
+            }
+            return red(a.left, a.value, red(bc, b.value, b.right));
+        }
+        if (!isRed(a) && !isRed(b)) {
+            Node<E> bc = fuse(a.right, b.left);
+            if (isRed(bc)) {
+                return red(black(a.left, a.value, bc.left), bc.value, black(bc.right, b.value, b.right));
+            }
+            return balanceLeft(a.left, a.value, black(bc, b.value, b.right));
+        }
+        if (isRed(b)) {
+            return red(fuse(a, b.left), b.value, b.right);
+        }
+        return red(a.left, a.value, fuse(a.right, b));
+    }
+
+    private static boolean isRed(Node<?> n) {
+        return n != null && n.color == RED;
+    }
+
+    private static boolean isBlack(Node<?> n) {
+        return n != null && n.color == BLACK;
+    }
+
+    private static <E> Node<E> red(Node<E> left, E value, Node<E> right) {
+        return new Node<>(RED, left, value, right);
+    }
+
+    private static <E> Node<E> black(Node<E> left, E value, Node<E> right) {
+        return new Node<>(BLACK, left, value, right);
+    }
+
+    private static <E> Node<E> blacken(Node<E> n) {
+        return n == null || n.color == BLACK ? n : black(n.left, n.value, n.right);
+    }
+
+    private static <E> Node<E> redden(Node<E> n) {
+        return red(n.left, n.value, n.right);
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, the tree is immutable
+     */
+    @Override
+    public boolean add(E value) {
+        throw new UnsupportedOperationException("tree is immutable, use plus()");
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, the tree is immutable
+     */
+    @Override
+    public boolean remove(E value) {
+        throw new UnsupportedOperationException("tree is immutable, use minus()");
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> curr = root;
+        while (curr != null) {
+            int cmp = compare(value, curr.value);
+            if (cmp == 0) {
+                return true;
+            }
+            curr = cmp < 0 ? curr.left : curr.right;
+        }
+        return false;
+    }
+
+    @Override
+    public E first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        Node<E> curr = root;
+        while (curr.left != null) {
+            curr = curr.left;
+        }
+        return curr.value;
+    }
+
+    @Override
+    public E last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        Node<E> curr = root;
+        while (curr.right != null) {
+            curr = curr.right;
+        }
+        return curr.value;
+    }
+
+    @Override
+    public List<E> inorderTraverse() {
+        List<E> list = new ArrayList<E>(size);
+        for (E value : this) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    @Override
+    public E floor(E value) {
+        Node<E> node = lowerNode(value, true);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public E ceiling(E value) {
+        Node<E> node = higherNode(value, true);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public E higher(E value) {
+        Node<E> node = higherNode(value, false);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public E lower(E value) {
+        Node<E> node = lowerNode(value, false);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * @return node with the greatest value less than (or equal to, if inclusive) the given one
+     */
+    private Node<E> lowerNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> best = null;
+        Node<E> curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp == 0 && inclusive) {
+                return curr;
+            } else if (cmp < 0) {
+                best = curr;
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return node with the least value greater than (or equal to, if inclusive) the given one
+     */
+    private Node<E> higherNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> best = null;
+        Node<E> curr = root;
+        while (curr != null) {
+            int cmp = compare(curr.value, value);
+            if (cmp == 0 && inclusive) {
+                return curr;
+            } else if (cmp > 0) {
+                best = curr;
+                curr = curr.left;
+            } else {
+                curr = curr.right;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public Iterator<E> range(E from, E to) {
+        if (from == null || to == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (compare(from, to) > 0) {
+            throw new IllegalArgumentException("from is greater than to: " + from + ", " + to);
+        }
+        return new TreeIterator(from, to);
+    }
+
+    /**
+     * Unlike the iterators of the mutable trees, this one stays valid forever: the version it
+     * walks never changes.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new TreeIterator(false);
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return new TreeIterator(true);
+    }
+
+    /**
+     * In-order walk with an explicit stack of the nodes whose values are still to be returned.
+     */
+    private class TreeIterator implements Iterator<E> {
+        private final Deque<Node<E>> stack = new ArrayDeque<>();
+        //исключающая верхняя граница, null - без границы
+        private final E to;
+        private final boolean descending;
+
+        TreeIterator(boolean descending) {
+            this.to = null;
+            this.descending = descending;
+            pushSpine(root);
+        }
+
+        TreeIterator(E from, E to) {
+            this.to = to;
+            this.descending = false;
+            Node<E> curr = root;
+            while (curr != null) {
+                if (compare(curr.value, from) >= 0) {
+                    stack.push(curr);
+                    curr = curr.left;
+                } else {
+                    curr = curr.right;
+                }
+            }
+            checkBound();
+        }
+
+        private void pushSpine(Node<E> curr) {
+            while (curr != null) {
+                stack.push(curr);
+                curr = descending ? curr.right : curr.left;
+            }
+        }
+
+        private void checkBound() {
+            if (to != null && !stack.isEmpty() && compare(stack.peek().value, to) >= 0) {
+                stack.clear();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public E next() {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<E> node = stack.pop();
+            pushSpine(descending ? node.left : node.right);
+            checkBound();
+            return node.value;
+        }
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    @Override
+    public String toString() {
+        return "BST{" + root + "}";
+    }
+}
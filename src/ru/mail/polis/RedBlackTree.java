@@ -1,10 +1,15 @@
 package ru.mail.polis;
 
+import java.util.ArrayDeque;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 //TODO: write code here
 public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
@@ -24,6 +29,8 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
         Node right = nil;
         Node parent = nil;
         boolean color = BLACK;
+        //число узлов в поддереве, у nil = 0
+        int size;
 
         @Override
         public String toString() {
@@ -43,6 +50,8 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
     private Node root = nil;
     private int size;
     private final Comparator<E> comparator;
+    //null - метрики не собираются
+    private SetMetrics metrics;
 
     public RedBlackTree() {
         this.comparator = null;
@@ -52,6 +61,76 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
         this.comparator = comparator;
     }
 
+    /**
+     * Builds a perfectly balanced tree from values in strictly ascending order in O(n),
+     * without any comparisons beyond the order check and without rebalancing.
+     *
+     * @throws IllegalArgumentException if values are not strictly ascending
+     */
+    public static <E extends Comparable<E>> RedBlackTree<E> fromSorted(List<E> values) {
+        return fromSorted(values, null);
+    }
+
+    /**
+     * @see #fromSorted(List)
+     */
+    public static <E extends Comparable<E>> RedBlackTree<E> fromSorted(List<E> values, Comparator<E> comparator) {
+        RedBlackTree<E> tree = new RedBlackTree<>(comparator);
+        E prev = null;
+        for (E value : values) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            if (prev != null && tree.compare(prev, value) >= 0) {
+                throw new IllegalArgumentException("values are not strictly ascending: " + prev + ", " + value);
+            }
+            prev = value;
+        }
+        tree.buildFromSorted(values.iterator(), values.size());
+        return tree;
+    }
+
+    /**
+     * Replaces the content of this tree with size values taken from the iterator, which
+     * must be strictly ascending.
+     */
+    void buildFromSorted(Iterator<? extends E> values, int size) {
+        root = buildFromSorted(values, 0, 0, size - 1, redLevel(size));
+        root.parent = nil;
+        this.size = size;
+    }
+
+    /**
+     * The tree built from sorted values is complete except for its deepest level, so
+     * making exactly that level red keeps all black heights equal.
+     */
+    private static int redLevel(int size) {
+        return 31 - Integer.numberOfLeadingZeros(size + 1);
+    }
+
+    private Node buildFromSorted(Iterator<? extends E> values, int level, int lo, int hi, int redLevel) {
+        if (lo > hi) {
+            return nil;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node left = buildFromSorted(values, level + 1, lo, mid - 1, redLevel);
+        Node node = new Node(values.next());
+        Node right = buildFromSorted(values, level + 1, mid + 1, hi, redLevel);
+        node.left = left;
+        node.right = right;
+        if (left != nil) {
+            left.parent = node;
+        }
+        if (right != nil) {
+            right.parent = node;
+        }
+        if (level == redLevel) {
+            node.color = RED;
+        }
+        node.size = left.size + right.size + 1;
+        return node;
+    }
+
     @Override
     public E first() {
         if (isEmpty()) {
@@ -79,17 +158,310 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
     @Override
     public List<E> inorderTraverse() {
         List<E> list = new ArrayList<E>(size);
-        inorderTraverse(root, list);
+        for (E value : this) {
+            list.add(value);
+        }
         return list;
     }
 
-    private void inorderTraverse(Node curr, List<E> list) {
-        if (curr == nil) {
-            return;
+    @Override
+    public Iterator<E> iterator() {
+        return new TreeIterator(firstNode(), null, false);
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return new TreeIterator(lastNode(), null, true);
+    }
+
+    private Node firstNode() {
+        Node curr = root;
+        if (curr != nil) {
+            while (curr.left != nil) {
+                curr = curr.left;
+            }
+        }
+        return curr;
+    }
+
+    private Node lastNode() {
+        Node curr = root;
+        if (curr != nil) {
+            while (curr.right != nil) {
+                curr = curr.right;
+            }
+        }
+        return curr;
+    }
+
+    @Override
+    public E floor(E value) {
+        Node node = lowerNode(value, true);
+        return node == nil ? null : node.value;
+    }
+
+    @Override
+    public E ceiling(E value) {
+        Node node = higherNode(value, true);
+        return node == nil ? null : node.value;
+    }
+
+    @Override
+    public E higher(E value) {
+        Node node = higherNode(value, false);
+        return node == nil ? null : node.value;
+    }
+
+    @Override
+    public E lower(E value) {
+        Node node = lowerNode(value, false);
+        return node == nil ? null : node.value;
+    }
+
+    /**
+     * @return node with the greatest value less than (or equal to, if inclusive) the given one
+     */
+    private Node lowerNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node best = nil;
+        Node curr = root;
+        while (curr != nil) {
+            int cmp = compare(curr.value, value);
+            if (cmp == 0 && inclusive) {
+                return curr;
+            } else if (cmp < 0) {
+                best = curr;
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return node with the least value greater than (or equal to, if inclusive) the given one
+     */
+    private Node higherNode(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node best = nil;
+        Node curr = root;
+        while (curr != nil) {
+            int cmp = compare(curr.value, value);
+            if (cmp == 0 && inclusive) {
+                return curr;
+            } else if (cmp > 0) {
+                best = curr;
+                curr = curr.left;
+            } else {
+                curr = curr.right;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public Iterator<E> range(E from, E to) {
+        if (from == null || to == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (compare(from, to) > 0) {
+            throw new IllegalArgumentException("from is greater than to: " + from + ", " + to);
+        }
+        return new TreeIterator(higherNode(from, true), to, false);
+    }
+
+    /**
+     * Walks successors (or predecessors) through parent links, O(1) extra memory.
+     */
+    private class TreeIterator implements Iterator<E> {
+        private Node next;
+        //исключающая верхняя граница, null - без границы
+        private final E to;
+        private final boolean descending;
+
+        TreeIterator(Node first, E to, boolean descending) {
+            this.to = to;
+            this.descending = descending;
+            this.next = bounded(first);
+        }
+
+        private Node bounded(Node node) {
+            return node == nil || to != null && compare(node.value, to) >= 0 ? nil : node;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != nil;
+        }
+
+        @Override
+        public E next() {
+            if (next == nil) {
+                throw new NoSuchElementException();
+            }
+            E value = next.value;
+            next = bounded(descending ? predecessor(next) : successor(next));
+            return value;
+        }
+    }
+
+    /**
+     * Fixes sizes after a rotation that moved upper above lower.
+     */
+    private void updateSizes(Node lower, Node upper) {
+        upper.size = lower.size;
+        lower.size = lower.left.size + lower.right.size + 1;
+    }
+
+    private void addToSizes(Node current, int delta) {
+        for (; current != nil; current = current.parent) {
+            current.size += delta;
+        }
+    }
+
+    private Node successor(Node q) {
+        if (q.right != nil) {
+            Node r = q.right;
+            while (r.left != nil) {
+                r = r.left;
+            }
+            return r;
+        }
+        Node p = q.parent;
+        while (p != nil && q == p.right) {
+            q = p;
+            p = q.parent;
+        }
+        return p;
+    }
+
+    private Node predecessor(Node q) {
+        if (q.left != nil) {
+            Node r = q.left;
+            while (r.right != nil) {
+                r = r.right;
+            }
+            return r;
+        }
+        Node p = q.parent;
+        while (p != nil && q == p.left) {
+            q = p;
+            p = q.parent;
+        }
+        return p;
+    }
+
+    @Override
+    public E select(int k) {
+        if (k < 0 || k >= size) {
+            throw new IndexOutOfBoundsException("k = " + k + ", size = " + size);
+        }
+        Node curr = root;
+        while (true) {
+            int leftSize = curr.left.size;
+            if (k < leftSize) {
+                curr = curr.left;
+            } else if (k > leftSize) {
+                k -= leftSize + 1;
+                curr = curr.right;
+            } else {
+                return curr.value;
+            }
+        }
+    }
+
+    @Override
+    public int rank(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int rank = 0;
+        Node curr = root;
+        while (curr != nil) {
+            int cmp = compare(curr.value, value);
+            if (cmp < 0) {
+                rank += curr.left.size + 1;
+                curr = curr.right;
+            } else if (cmp > 0) {
+                curr = curr.left;
+            } else {
+                return rank + curr.left.size;
+            }
+        }
+        return rank;
+    }
+
+    @Override
+    public int countInRange(E from, E to) {
+        if (from == null || to == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (compare(from, to) > 0) {
+            throw new IllegalArgumentException("from is greater than to: " + from + ", " + to);
+        }
+        return rank(to) - rank(from);
+    }
+
+    /**
+     * @return the number of levels, 0 for an empty tree; walks the whole tree
+     */
+    public int height() {
+        int height = 0;
+        Deque<Node> nodes = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        if (root != nil) {
+            nodes.push(root);
+            depths.push(1);
+        }
+        while (!nodes.isEmpty()) {
+            Node current = nodes.pop();
+            int depth = depths.pop();
+            height = Math.max(height, depth);
+            if (current.left != nil) {
+                nodes.push(current.left);
+                depths.push(depth + 1);
+            }
+            if (current.right != nil) {
+                nodes.push(current.right);
+                depths.push(depth + 1);
+            }
+        }
+        return height;
+    }
+
+    /**
+     * @return the number of black nodes on every path from the root down to nil
+     */
+    public int blackHeight() {
+        return blackHeight(root);
+    }
+
+    /**
+     * Starts (or, with null, stops) collecting metrics of this tree.
+     */
+    public void setMetrics(SetMetrics metrics) {
+        this.metrics = metrics;
+        if (metrics != null) {
+            metrics.attachTree(this::height);
+        }
+    }
+
+    /**
+     * @return the attached metrics, null if none
+     */
+    public SetMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void beginOperation() {
+        if (metrics != null) {
+            metrics.beginOperation();
         }
-        inorderTraverse(curr.left, list);
-        list.add(curr.value);
-        inorderTraverse(curr.right, list);
     }
 
     @Override
@@ -104,6 +476,7 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
 
     @Override
     public boolean contains(E value) {
+        beginOperation();
         if (value == null) {
             throw new NullPointerException("value is null");
         }
@@ -123,8 +496,43 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
         return false;
     }
 
+    /**
+     * Looks the keys up in ascending order, so that consecutive searches share a prefix of
+     * their paths: the nodes where the previous search turned left bound the subtree holding
+     * the next key, and the search resumes from the deepest of them that is still greater
+     * than the key instead of from the root.
+     */
+    @Override
+    public void containsBatch(E[] keys, boolean[] out) {
+        beginOperation();
+        Batches.checkBatch(keys, out);
+        //узлы, в которых предыдущий поиск свернул налево, самый глубокий - на вершине
+        Deque<Node> path = new ArrayDeque<>();
+        for (int i : Batches.sortedOrder(keys, this::compare)) {
+            E key = keys[i];
+            while (!path.isEmpty() && compare(path.peek().value, key) < 0) {
+                path.pop();
+            }
+            boolean found = !path.isEmpty() && compare(path.peek().value, key) == 0;
+            Node curr = path.isEmpty() ? root : path.peek().left;
+            while (!found && curr != nil) {
+                int cmp = compare(curr.value, key);
+                if (cmp == 0) {
+                    found = true;
+                } else if (cmp < 0) {
+                    curr = curr.right;
+                } else {
+                    path.push(curr);
+                    curr = curr.left;
+                }
+            }
+            out[i] = found;
+        }
+    }
+
     @Override
     public boolean add(E value) {
+        beginOperation();
         if (value == null) {
             throw new NullPointerException("value is null");
         }
@@ -158,10 +566,14 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
                     break;
                 }
             }
-            if(res)
+            if(res) {
+                nodeToAdd.size = 1;
+                addToSizes(nodeToAdd.parent, 1);
                 fixUpOnAdd(nodeToAdd);
+            }
         } else {
             root = nodeToAdd;
+            nodeToAdd.size = 1;
             nodeToAdd.color = BLACK;
             nodeToAdd.parent = nil;
             res = true;
@@ -172,6 +584,9 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
     }
 
     private void fixUpOnAdd(Node node) {
+        if (metrics != null) {
+            metrics.beginRebalance();
+        }
         while (node.parent.color != BLACK) {
             if (node.parent == node.parent.parent.left) {
                 Node uncle = node.parent.parent.right;
@@ -208,9 +623,15 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
             }
         }
         root.color = BLACK;
+        if (metrics != null) {
+            metrics.endRebalance(this);
+        }
     }
 
     void rotateLeft(Node n) {
+        if (metrics != null) {
+            metrics.rotated();
+        }
         if (n.parent != nil) {
             if (n == n.parent.left) {
                 n.parent.left = n.right;
@@ -224,6 +645,7 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
             }
             n.right = n.right.left;
             n.parent.left = n;
+            updateSizes(n, n.parent);
             return;
         }
         Node rootRight = root.right;
@@ -233,9 +655,13 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
         rootRight.left = root;
         rootRight.parent = nil;
         root = rootRight;
+        updateSizes(root.left, root);
     }
 
     void rotateRight(Node n) {
+        if (metrics != null) {
+            metrics.rotated();
+        }
         if (n.parent != nil) {
             if (n == n.parent.left) {
                 n.parent.left = n.left;
@@ -249,6 +675,7 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
             }
             n.left = n.left.right;
             n.parent.right = n;
+            updateSizes(n, n.parent);
             return;
         }
         Node rootLeft = root.left;
@@ -258,10 +685,12 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
         rootLeft.right = root;
         rootLeft.parent = nil;
         root = rootLeft;
+        updateSizes(root.right, root);
     }
 
     @Override
     public boolean remove(E value) {
+        beginOperation();
         if (value == null) {
             throw new NullPointerException("value is null");
         }
@@ -277,6 +706,13 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
             isFixupOnRemoveNeeded = false;
         }
 
+        if (nodeForRemove.left == nil || nodeForRemove.right == nil) {
+            addToSizes(nodeForRemove.parent, -1);
+        } else {
+            //на место nodeForRemove встанет его последователь
+            addToSizes(successor(nodeForRemove).parent, -1);
+        }
+
         if(nodeForRemove.left == nil) {
             n = nodeForRemove.right;
             performTransplant(nodeForRemove, nodeForRemove.right);
@@ -306,6 +742,7 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
             k.left = nodeForRemove.left;
             k.left.parent = k;
             k.color = nodeForRemove.color;
+            k.size = nodeForRemove.size;
         }
 
         if(isFixupOnRemoveNeeded){
@@ -346,6 +783,9 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
     }
 
     void fixUpOnRemove(Node node) {
+        if (metrics != null) {
+            metrics.beginRebalance();
+        }
         while(node != root && node.color == BLACK) {
             if(node == node.parent.left) {
                 Node w = node.parent.right;
@@ -400,9 +840,352 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
             }
         }
         node.color = BLACK;
+        if (metrics != null) {
+            metrics.endRebalance(this);
+        }
+    }
+
+    /**
+     * Pairs of subtrees with fewer nodes than this are combined without forking.
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private static final int UNION = 0;
+    private static final int INTERSECTION = 1;
+    private static final int DIFFERENCE = 2;
+
+    /**
+     * Turns this tree into the union of this and other, which must use the same order.
+     * Other is left unchanged.
+     * <p>
+     * Join-based algorithm (Blelloch, Ferizovic, Sun, "Just join for parallel ordered sets",
+     * 2016): split one tree by the root of the other and combine the halves recursively, the
+     * halves in parallel. O(m log(n/m + 1)) comparisons, where m is the size of the smaller
+     * tree, and O(log n log m) span. Other is copied first in O(m), so call this on the larger
+     * of the two trees.
+     */
+    public void union(RedBlackTree<E> other) {
+        union(other, ForkJoinPool.commonPool());
+    }
+
+    public void union(RedBlackTree<E> other, ForkJoinPool pool) {
+        combine(UNION, other, pool);
+    }
+
+    /**
+     * Keeps in this tree only the elements also contained in other, see
+     * {@link #union(RedBlackTree)}.
+     */
+    public void intersection(RedBlackTree<E> other) {
+        intersection(other, ForkJoinPool.commonPool());
+    }
+
+    public void intersection(RedBlackTree<E> other, ForkJoinPool pool) {
+        combine(INTERSECTION, other, pool);
+    }
+
+    /**
+     * Removes from this tree all the elements contained in other, see
+     * {@link #union(RedBlackTree)}.
+     */
+    public void difference(RedBlackTree<E> other) {
+        difference(other, ForkJoinPool.commonPool());
+    }
+
+    public void difference(RedBlackTree<E> other, ForkJoinPool pool) {
+        combine(DIFFERENCE, other, pool);
+    }
+
+    private void combine(int operation, RedBlackTree<E> other, ForkJoinPool pool) {
+        if (other == null || pool == null) {
+            throw new NullPointerException();
+        }
+        combineWith(operation, copy(other, other.root), pool);
+    }
+
+    private void combineWith(int operation, Node other, ForkJoinPool pool) {
+        Part t1 = new Part(root, blackHeight(root));
+        Part t2 = new Part(other, blackHeight(other));
+        if (size + other.size < PARALLEL_THRESHOLD) {
+            root = combine(operation, t1, t2).root;
+        } else {
+            root = pool.invoke(new Combine(operation, t1, t2)).root;
+        }
+        if (root != nil) {
+            root.color = BLACK;
+            root.parent = nil;
+        }
+        size = root.size;
+    }
+
+    private int blackHeight(Node current) {
+        int height = 0;
+        for (; current != nil; current = current.left) {
+            if (current.color == BLACK) {
+                height++;
+            }
+        }
+        return height;
+    }
+
+    /**
+     * Sorts the values and merges them in as a balanced tree built in O(m), see
+     * {@link #union(RedBlackTree)}.
+     */
+    @Override
+    public int addAll(E[] values) {
+        beginOperation();
+        Batches.checkValues(values);
+        List<E> batch = Batches.sortedDistinct(values, this::compare);
+        int before = size;
+        combineWith(UNION, buildFromSorted(batch.iterator(), 0, 0, batch.size() - 1, redLevel(batch.size())), ForkJoinPool.commonPool());
+        return size - before;
+    }
+
+    @Override
+    public int removeAll(E[] values) {
+        beginOperation();
+        Batches.checkValues(values);
+        List<E> batch = Batches.sortedDistinct(values, this::compare);
+        int before = size;
+        combineWith(DIFFERENCE, buildFromSorted(batch.iterator(), 0, 0, batch.size() - 1, redLevel(batch.size())), ForkJoinPool.commonPool());
+        return before - size;
+    }
+
+    private Node copy(RedBlackTree<E> other, Node current) {
+        if (current == other.nil) {
+            return nil;
+        }
+        Node node = new Node(current.value);
+        node.color = current.color;
+        node.size = current.size;
+        node.left = copy(other, current.left);
+        node.right = copy(other, current.right);
+        if (node.left != nil) {
+            node.left.parent = node;
+        }
+        if (node.right != nil) {
+            node.right.parent = node;
+        }
+        return node;
+    }
+
+    /**
+     * Detached subtree together with its black height: the number of black nodes on any path
+     * from its root down to nil, the root included.
+     */
+    private class Part {
+        final Node root;
+        final int blackHeight;
+
+        Part(Node root, int blackHeight) {
+            this.root = root;
+            this.blackHeight = blackHeight;
+        }
+
+        Part left() {
+            return new Part(root.left, childBlackHeight());
+        }
+
+        Part right() {
+            return new Part(root.right, childBlackHeight());
+        }
+
+        private int childBlackHeight() {
+            return root.color == BLACK ? blackHeight - 1 : blackHeight;
+        }
+
+        Part blacken() {
+            if (root.color == BLACK) {
+                return this;
+            }
+            root.color = BLACK;
+            return new Part(root, blackHeight + 1);
+        }
+    }
+
+    private class Combine extends RecursiveTask<Part> {
+        private static final long serialVersionUID = 1L;
+
+        private final int operation;
+        private final Part t1;
+        private final Part t2;
+
+        Combine(int operation, Part t1, Part t2) {
+            this.operation = operation;
+            this.t1 = t1;
+            this.t2 = t2;
+        }
+
+        @Override
+        protected Part compute() {
+            return combine(operation, t1, t2);
+        }
+    }
+
+    /**
+     * Combines two detached trees, reusing their nodes; the subtrees are disjoint, so the
+     * recursive calls may run in parallel.
+     */
+    private Part combine(int operation, Part t1, Part t2) {
+        if (t1.root == nil) {
+            return operation == UNION ? t2 : t1;
+        }
+        if (t2.root == nil) {
+            return operation == INTERSECTION ? t2 : t1;
+        }
+        boolean parallel = t1.root.size + t2.root.size >= PARALLEL_THRESHOLD;
+        //разность делит t1 по корню t2, объединение и пересечение - t2 по корню t1
+        Node pivot = operation == DIFFERENCE ? t2.root : t1.root;
+        Split split = split(operation == DIFFERENCE ? t1 : t2, pivot.value);
+        Part left1 = operation == DIFFERENCE ? split.left : t1.left();
+        Part right1 = operation == DIFFERENCE ? split.right : t1.right();
+        Part left2 = operation == DIFFERENCE ? t2.left() : split.left;
+        Part right2 = operation == DIFFERENCE ? t2.right() : split.right;
+        Part left;
+        Part right;
+        if (parallel) {
+            Combine task = new Combine(operation, right1, right2);
+            task.fork();
+            left = combine(operation, left1, left2);
+            right = task.join();
+        } else {
+            left = combine(operation, left1, left2);
+            right = combine(operation, right1, right2);
+        }
+        if (operation == UNION || operation == INTERSECTION && split.node != null) {
+            return join(left, pivot, right);
+        }
+        return join2(left, right);
+    }
+
+    private class Split {
+        Part left;
+        //узел, равный ключу разбиения, null - если его нет
+        final Node node;
+        Part right;
+
+        Split(Part left, Node node, Part right) {
+            this.left = left;
+            this.node = node;
+            this.right = right;
+        }
+    }
+
+    /**
+     * Splits detached tree t into the elements less than value and greater than value in
+     * O(log n), reusing its nodes.
+     */
+    private Split split(Part t, E value) {
+        if (t.root == nil) {
+            return new Split(t, null, t);
+        }
+        int cmp = compare(value, t.root.value);
+        if (cmp == 0) {
+            return new Split(t.left(), t.root, t.right());
+        }
+        if (cmp < 0) {
+            Part right = t.right();
+            Split split = split(t.left(), value);
+            split.right = join(split.right, t.root, right);
+            return split;
+        }
+        Part left = t.left();
+        Split split = split(t.right(), value);
+        split.left = join(left, t.root, split.left);
+        return split;
+    }
+
+    /**
+     * Joins detached trees with all the elements of left less than key and all the elements of
+     * right greater than key in O(|blackHeight(left) - blackHeight(right)| + 1).
+     */
+    private Part join(Part left, Node key, Part right) {
+        left = left.blacken();
+        right = right.blacken();
+        if (left.blackHeight == right.blackHeight) {
+            key.color = RED;
+            return new Part(link(left.root, key, right.root), left.blackHeight);
+        }
+        Node joined;
+        if (left.blackHeight > right.blackHeight) {
+            joined = joinRight(left.root, left.blackHeight, key, right.root, right.blackHeight);
+        } else {
+            joined = joinLeft(left.root, left.blackHeight, key, right.root, right.blackHeight);
+        }
+        return new Part(joined, Math.max(left.blackHeight, right.blackHeight)).blacken();
+    }
+
+    //спуск по правому краю left до чёрного узла той же чёрной высоты, что и right
+    private Node joinRight(Node left, int leftHeight, Node key, Node right, int rightHeight) {
+        if (left.color == BLACK && leftHeight == rightHeight) {
+            key.color = RED;
+            return link(left, key, right);
+        }
+        Node joined = joinRight(left.right, left.color == BLACK ? leftHeight - 1 : leftHeight,
+                key, right, rightHeight);
+        link(left.left, left, joined);
+        if (left.color == BLACK && joined.color == RED && joined.right.color == RED) {
+            joined.right.color = BLACK;
+            return link(link(left.left, left, joined.left), joined, joined.right);
+        }
+        return left;
+    }
+
+    private Node joinLeft(Node left, int leftHeight, Node key, Node right, int rightHeight) {
+        if (right.color == BLACK && leftHeight == rightHeight) {
+            key.color = RED;
+            return link(left, key, right);
+        }
+        Node joined = joinLeft(left, leftHeight, key, right.left,
+                right.color == BLACK ? rightHeight - 1 : rightHeight);
+        link(joined, right, right.right);
+        if (right.color == BLACK && joined.color == RED && joined.left.color == RED) {
+            joined.left.color = BLACK;
+            return link(joined.left, joined, link(joined.right, right, right.right));
+        }
+        return right;
+    }
+
+    //nil общий для всех поддеревьев, поэтому его родитель не меняется
+    private Node link(Node left, Node node, Node right) {
+        node.left = left;
+        node.right = right;
+        if (left != nil) {
+            left.parent = node;
+        }
+        if (right != nil) {
+            right.parent = node;
+        }
+        node.size = 1 + left.size + right.size;
+        return node;
+    }
+
+    /**
+     * Joins detached trees with all the elements of left less than those of right.
+     */
+    private Part join2(Part left, Part right) {
+        if (left.root == nil) {
+            return right;
+        }
+        Split split = splitLast(left);
+        return join(split.left, split.node, right);
+    }
+
+    private Split splitLast(Part t) {
+        if (t.root.right == nil) {
+            return new Split(t.left(), t.root, t.right());
+        }
+        Part left = t.left();
+        Split split = splitLast(t.right());
+        split.left = join(left, t.root, split.left);
+        return split;
     }
 
     private int compare(E v1, E v2) {
+        if (metrics != null) {
+            metrics.compared();
+        }
         return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
     }
 
@@ -0,0 +1,315 @@
+package ru.mail.polis;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.Arrays;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters and histograms of one set instance: comparisons per operation, rotations and
+ * rebalances of trees, probe (chain) lengths and resizes of hash tables.
+ * <p>
+ * Attached with setMetrics() of {@link AVLTree}, {@link RedBlackTree}, {@link ChainHashTable}
+ * and {@link OpenHashTable}. A set without metrics pays one null check per comparison and per
+ * operation. Resizes and deep rebalances (at least deepRebalanceRotations rotations in one
+ * rebalance) of a set with metrics are also committed as JFR events while a flight recording
+ * has them enabled; otherwise no events are allocated.
+ * <p>
+ * Not thread-safe, like the sets themselves; the parallel set operations of the trees may lose
+ * some of the comparison counts.
+ * <p>
+ * Histograms have logarithmic buckets: bucket 0 counts zeros, bucket i > 0 counts values in
+ * [2^(i-1), 2^i).
+ */
+public class SetMetrics {
+
+    private static final int BUCKETS = 33;
+    private static final EventType REBALANCE_EVENT = EventType.getEventType(RebalanceEvent.class);
+    private static final EventType RESIZE_EVENT = EventType.getEventType(ResizeEvent.class);
+
+    private final int deepRebalanceRotations;
+    //высота дерева, к которому подключены метрики, null у хеш-таблиц
+    private IntSupplier treeHeight;
+
+    private long operations;
+    private long comparisons;
+    private long maxComparisons;
+    private final long[] comparisonHistogram = new long[BUCKETS];
+    //сравнения текущей операции, попадают в гистограмму в начале следующей
+    private long operationComparisons;
+    private boolean inOperation;
+
+    private long rotations;
+    private long rebalances;
+    private long deepRebalances;
+    private int rebalanceRotations;
+    private RebalanceEvent rebalanceEvent;
+
+    private long probes;
+    private long probeLength;
+    private int maxProbeLength;
+    private final long[] probeHistogram = new long[BUCKETS];
+
+    private long resizes;
+    private long resizeNanos;
+    private long maxResizeNanos;
+    private ResizeEvent resizeEvent;
+    private long resizeStart;
+
+    public SetMetrics() {
+        this(3);
+    }
+
+    /**
+     * @param deepRebalanceRotations rotations in one rebalance that make it deep
+     */
+    public SetMetrics(int deepRebalanceRotations) {
+        if (deepRebalanceRotations <= 0) {
+            throw new IllegalArgumentException("deep rebalance rotations must be positive: " + deepRebalanceRotations);
+        }
+        this.deepRebalanceRotations = deepRebalanceRotations;
+    }
+
+    void attachTree(IntSupplier height) {
+        this.treeHeight = height;
+    }
+
+    void beginOperation() {
+        endOperation();
+        operations++;
+        inOperation = true;
+    }
+
+    private void endOperation() {
+        if (inOperation) {
+            comparisonHistogram[bucket(operationComparisons)]++;
+            maxComparisons = Math.max(maxComparisons, operationComparisons);
+            operationComparisons = 0;
+            inOperation = false;
+        }
+    }
+
+    void compared() {
+        comparisons++;
+        operationComparisons++;
+    }
+
+    void beginRebalance() {
+        rebalanceRotations = 0;
+        //событие создаётся, только если его пишет запущенная запись
+        if (REBALANCE_EVENT.isEnabled()) {
+            rebalanceEvent = new RebalanceEvent();
+            rebalanceEvent.begin();
+        }
+    }
+
+    void rotated() {
+        rotations++;
+        rebalanceRotations++;
+    }
+
+    void endRebalance(ISet<?> set) {
+        if (rebalanceRotations > 0) {
+            rebalances++;
+        }
+        if (rebalanceRotations >= deepRebalanceRotations) {
+            deepRebalances++;
+            if (rebalanceEvent != null) {
+                rebalanceEvent.end();
+            }
+            if (rebalanceEvent != null && rebalanceEvent.shouldCommit()) {
+                rebalanceEvent.set = set.getClass().getSimpleName();
+                rebalanceEvent.rotations = rebalanceRotations;
+                rebalanceEvent.size = set.size();
+                rebalanceEvent.commit();
+            }
+        }
+        rebalanceEvent = null;
+    }
+
+    void probed(int length) {
+        probes++;
+        probeLength += length;
+        maxProbeLength = Math.max(maxProbeLength, length);
+        probeHistogram[bucket(length)]++;
+    }
+
+    void beginResize() {
+        if (RESIZE_EVENT.isEnabled()) {
+            resizeEvent = new ResizeEvent();
+            resizeEvent.begin();
+        }
+        resizeStart = System.nanoTime();
+    }
+
+    void endResize(ISet<?> set, int oldCapacity, int newCapacity) {
+        long nanos = System.nanoTime() - resizeStart;
+        if (resizeEvent != null) {
+            resizeEvent.end();
+        }
+        resizes++;
+        resizeNanos += nanos;
+        maxResizeNanos = Math.max(maxResizeNanos, nanos);
+        if (resizeEvent != null && resizeEvent.shouldCommit()) {
+            resizeEvent.set = set.getClass().getSimpleName();
+            resizeEvent.oldCapacity = oldCapacity;
+            resizeEvent.newCapacity = newCapacity;
+            resizeEvent.size = set.size();
+            resizeEvent.commit();
+        }
+        resizeEvent = null;
+    }
+
+    private static int bucket(long value) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    /**
+     * @return the number of contains, add, remove and batch calls
+     */
+    public long operations() {
+        return operations;
+    }
+
+    public long comparisons() {
+        return comparisons;
+    }
+
+    public double comparisonsPerOperation() {
+        return operations == 0 ? 0 : (double) comparisons / operations;
+    }
+
+    /**
+     * @return the most comparisons made by one operation
+     */
+    public long maxComparisons() {
+        endOperation();
+        return maxComparisons;
+    }
+
+    /**
+     * @return the number of levels of the tree these metrics are attached to, computed on each
+     * call (in O(n) for a red-black tree); -1 for a hash table
+     */
+    public int height() {
+        return treeHeight == null ? -1 : treeHeight.getAsInt();
+    }
+
+    /**
+     * @return histogram of the number of comparisons per operation
+     */
+    public long[] comparisonHistogram() {
+        endOperation();
+        return comparisonHistogram.clone();
+    }
+
+    public long rotations() {
+        return rotations;
+    }
+
+    /**
+     * @return the number of inserts and removals that needed at least one rotation
+     */
+    public long rebalances() {
+        return rebalances;
+    }
+
+    public long deepRebalances() {
+        return deepRebalances;
+    }
+
+    /**
+     * @return the average number of chain nodes or slots inspected by a hash table lookup
+     */
+    public double averageProbeLength() {
+        return probes == 0 ? 0 : (double) probeLength / probes;
+    }
+
+    public int maxProbeLength() {
+        return maxProbeLength;
+    }
+
+    public long[] probeHistogram() {
+        return probeHistogram.clone();
+    }
+
+    public long resizes() {
+        return resizes;
+    }
+
+    public long resizeNanos() {
+        return resizeNanos;
+    }
+
+    public long maxResizeNanos() {
+        return maxResizeNanos;
+    }
+
+    public void reset() {
+        operations = 0;
+        comparisons = 0;
+        maxComparisons = 0;
+        Arrays.fill(comparisonHistogram, 0);
+        operationComparisons = 0;
+        inOperation = false;
+        rotations = 0;
+        rebalances = 0;
+        deepRebalances = 0;
+        probes = 0;
+        probeLength = 0;
+        maxProbeLength = 0;
+        Arrays.fill(probeHistogram, 0);
+        resizes = 0;
+        resizeNanos = 0;
+        maxResizeNanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SetMetrics{operations=" + operations
+                + ", comparisons/op=" + comparisonsPerOperation()
+                + ", maxComparisons=" + maxComparisons()
+                + ", height=" + height()
+                + ", rotations=" + rotations
+                + ", rebalances=" + rebalances
+                + ", deepRebalances=" + deepRebalances
+                + ", probeLength=" + averageProbeLength()
+                + ", maxProbeLength=" + maxProbeLength
+                + ", resizes=" + resizes
+                + ", resizeNanos=" + resizeNanos
+                + "}";
+    }
+
+    @Name("ru.mail.polis.Resize")
+    @Label("Set Resize")
+    @Category("Search Data Structures")
+    @Description("Hash table grown and rehashed")
+    static final class ResizeEvent extends Event {
+        @Label("Set")
+        String set;
+        @Label("Old Capacity")
+        int oldCapacity;
+        @Label("New Capacity")
+        int newCapacity;
+        @Label("Size")
+        int size;
+    }
+
+    @Name("ru.mail.polis.DeepRebalance")
+    @Label("Deep Rebalance")
+    @Category("Search Data Structures")
+    @Description("Tree insert or removal that needed many rotations")
+    static final class RebalanceEvent extends Event {
+        @Label("Set")
+        String set;
+        @Label("Rotations")
+        int rotations;
+        @Label("Size")
+        int size;
+    }
+}
@@ -0,0 +1,414 @@
+package ru.mail.polis;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshots of sets, for a warm restart without re-adding every element.
+ * <p>
+ * A snapshot is a small header (magic, version, flags, key size, element count), the elements
+ * as fixed-width keys of a {@link KeySerializer}, and a CRC32 of everything before it. Sorted
+ * sets are written in ascending order, and trees are rebuilt from that in O(n) through their
+ * bulk builders. Hash tables are written in bucket order and reloaded into a table presized for
+ * the element count, so it never resizes. Loading a tree from an unordered snapshot sorts the
+ * elements first.
+ * <p>
+ * A snapshot is written to a temporary file that replaces the target only once it is complete
+ * and forced to disk, so a crash never leaves a truncated snapshot behind. After the rename the
+ * directory is forced too, where the platform lets a directory be opened, so a snapshot is
+ * durable once write returns.
+ */
+public final class SetSnapshot {
+
+    private static final long MAGIC = 0x534554534E415031L;
+    private static final int VERSION = 1;
+    private static final byte SORTED = 1;
+    //magic(8) + version(4) + flags(1) + keySize(4) + count(8)
+    private static final int HEADER = 25;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private SetSnapshot() {
+    }
+
+    /**
+     * Writes a sorted set, a {@link ChainHashTable} or an {@link OpenHashTable} to file.
+     *
+     * @throws IllegalArgumentException if the set is of any other kind
+     */
+    public static <E extends Comparable<E>> void write(ISet<E> set, KeySerializer<E> serializer, Path file)
+            throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer<E> writer = new Writer<>(tmp, serializer, set.size(), set instanceof ISortedSet)) {
+            try {
+                if (set instanceof ISortedSet) {
+                    for (E value : (ISortedSet<E>) set) {
+                        writer.accept(value);
+                    }
+                } else if (set instanceof ChainHashTable) {
+                    ((ChainHashTable<E>) set).forEachValue(writer::accept);
+                } else if (set instanceof OpenHashTable) {
+                    ((OpenHashTable<E>) set).forEachValue(writer::accept);
+                } else {
+                    throw new IllegalArgumentException("snapshots are not supported for " + set.getClass().getName());
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.finish();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(file.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Forces the directory entries of dir to disk, so that a rename in it survives a crash.
+     * Directories cannot be opened on some platforms (Windows), where this does nothing.
+     */
+    private static void forceDirectory(Path dir) throws IOException {
+        if (dir == null) {
+            return;
+        }
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (FileChannel directory = channel) {
+            directory.force(true);
+        }
+    }
+
+    /**
+     * @param comparator the order of the tree, null for natural order
+     * @throws IOException if the file is not a snapshot, is corrupted, was written with another
+     *                     key size, or holds duplicate elements
+     */
+    public static <E extends Comparable<E>> AVLTree<E> readAVLTree(Path file, KeySerializer<E> serializer,
+                                                                   Comparator<E> comparator) throws IOException {
+        AVLTree<E> tree = new AVLTree<>(comparator);
+        try (Reader<E> reader = new Reader<>(file, serializer)) {
+            tree.buildFromSorted(reader.ascending(comparator), reader.intCount());
+            reader.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return tree;
+    }
+
+    /**
+     * @see #readAVLTree(Path, KeySerializer, Comparator)
+     */
+    public static <E extends Comparable<E>> RedBlackTree<E> readRedBlackTree(Path file, KeySerializer<E> serializer,
+                                                                             Comparator<E> comparator) throws IOException {
+        RedBlackTree<E> tree = new RedBlackTree<>(comparator);
+        try (Reader<E> reader = new Reader<>(file, serializer)) {
+            tree.buildFromSorted(reader.ascending(comparator), reader.intCount());
+            reader.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return tree;
+    }
+
+    /**
+     * @see #readAVLTree(Path, KeySerializer, Comparator)
+     */
+    public static <E extends Comparable<E>> BinarySearchTree<E> readBinarySearchTree(Path file,
+                                                                                     KeySerializer<E> serializer,
+                                                                                     Comparator<E> comparator)
+            throws IOException {
+        BinarySearchTree<E> tree = new BinarySearchTree<>(comparator);
+        try (Reader<E> reader = new Reader<>(file, serializer)) {
+            tree.buildFromSorted(reader.ascending(comparator), reader.intCount());
+            reader.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return tree;
+    }
+
+    /**
+     * @see #readAVLTree(Path, KeySerializer, Comparator)
+     */
+    public static <E extends Comparable<E>> ChainHashTable<E> readChainHashTable(Path file,
+                                                                                 KeySerializer<E> serializer,
+                                                                                 Comparator<E> comparator)
+            throws IOException {
+        try (Reader<E> reader = new Reader<>(file, serializer)) {
+            ChainHashTable<E> table = new ChainHashTable<>(comparator, false, reader.intCount());
+            reader.addAllTo(table);
+            reader.finish();
+            return table;
+        }
+    }
+
+    /**
+     * @see #readAVLTree(Path, KeySerializer, Comparator)
+     */
+    public static <E extends Comparable<E>> OpenHashTable<E> readOpenHashTable(Path file,
+                                                                               KeySerializer<E> serializer,
+                                                                               Comparator<E> comparator)
+            throws IOException {
+        try (Reader<E> reader = new Reader<>(file, serializer)) {
+            OpenHashTable<E> table = new OpenHashTable<>(comparator, 0.5f, reader.intCount());
+            reader.addAllTo(table);
+            reader.finish();
+            return table;
+        }
+    }
+
+    private static final class Writer<E> implements AutoCloseable {
+        private final FileChannel channel;
+        private final KeySerializer<E> serializer;
+        private final ByteBuffer buffer;
+        private final CRC32 crc = new CRC32();
+        private final long expected;
+        private long written;
+
+        Writer(Path file, KeySerializer<E> serializer, long count, boolean sorted) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.serializer = serializer;
+            this.buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, HEADER + serializer.size()));
+            this.expected = count;
+            buffer.putLong(MAGIC).putInt(VERSION).put(sorted ? SORTED : 0)
+                    .putInt(serializer.size()).putLong(count);
+        }
+
+        /**
+         * @throws UncheckedIOException so that it can be used as a Consumer
+         */
+        void accept(E value) {
+            try {
+                if (buffer.remaining() < serializer.size()) {
+                    drain();
+                }
+                int end = buffer.position() + serializer.size();
+                int limit = buffer.limit();
+                buffer.limit(end);
+                serializer.write(value, buffer);
+                buffer.limit(limit).position(end);
+                written++;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void finish() throws IOException {
+            if (written != expected) {
+                throw new IllegalStateException("set size is " + expected + " but " + written
+                        + " elements were written; was it modified concurrently?");
+            }
+            if (buffer.remaining() < Long.BYTES) {
+                drain();
+            }
+            updateCrc();
+            buffer.putLong(crc.getValue());
+            buffer.flip();
+            writeFully();
+            channel.force(true);
+        }
+
+        private void drain() throws IOException {
+            updateCrc();
+            buffer.flip();
+            writeFully();
+            buffer.clear();
+        }
+
+        private void updateCrc() {
+            ByteBuffer view = buffer.duplicate();
+            view.flip();
+            crc.update(view);
+        }
+
+        private void writeFully() throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Streams the elements of a snapshot, updating the checksum as it goes; the checksum is
+     * verified by {@link #finish()} after the last element has been consumed.
+     */
+    private static final class Reader<E extends Comparable<E>> implements AutoCloseable {
+        private final Path file;
+        private final FileChannel channel;
+        private final KeySerializer<E> serializer;
+        private final ByteBuffer buffer;
+        private final CRC32 crc = new CRC32();
+        private final boolean sorted;
+        private final long count;
+        private long read;
+
+        Reader(Path file, KeySerializer<E> serializer) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.serializer = serializer;
+            this.buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, HEADER + serializer.size()));
+            buffer.limit(0);
+            try {
+                require(HEADER);
+                if (buffer.getLong() != MAGIC) {
+                    throw new IOException("not a set snapshot: " + file);
+                }
+                int version = buffer.getInt();
+                if (version != VERSION) {
+                    throw new IOException("unsupported snapshot version " + version + ": " + file);
+                }
+                this.sorted = (buffer.get() & SORTED) != 0;
+                int keySize = buffer.getInt();
+                if (keySize != serializer.size()) {
+                    throw new IOException("snapshot has keys of " + keySize + " bytes, serializer reads "
+                            + serializer.size() + ": " + file);
+                }
+                this.count = buffer.getLong();
+                if (count < 0 || channel.size() != HEADER + count * keySize + Long.BYTES) {
+                    throw new IOException("snapshot is truncated or corrupted: " + file);
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        int intCount() throws IOException {
+            if (count > Integer.MAX_VALUE) {
+                throw new IOException("snapshot of " + count + " elements does not fit into an in-memory set: " + file);
+            }
+            return (int) count;
+        }
+
+        E next() throws IOException {
+            if (read == count) {
+                throw new NoSuchElementException();
+            }
+            require(serializer.size());
+            int end = buffer.position() + serializer.size();
+            int limit = buffer.limit();
+            buffer.limit(end);
+            E value = serializer.read(buffer);
+            buffer.limit(limit).position(end);
+            read++;
+            return value;
+        }
+
+        /**
+         * @return all elements in ascending order: the file itself if it is sorted, checking
+         * the order on the fly, or a sorted copy of an unordered one
+         */
+        Iterator<E> ascending(Comparator<E> comparator) throws IOException {
+            Comparator<E> order = comparator == null ? Comparator.naturalOrder() : comparator;
+            if (!sorted) {
+                @SuppressWarnings("unchecked")
+                E[] values = (E[]) new Comparable<?>[intCount()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = next();
+                }
+                Arrays.sort(values, order);
+                for (int i = 1; i < values.length; i++) {
+                    if (order.compare(values[i - 1], values[i]) == 0) {
+                        throw new IOException("snapshot has duplicate element " + values[i] + ": " + file);
+                    }
+                }
+                return Arrays.asList(values).iterator();
+            }
+            return new Iterator<E>() {
+                private E prev;
+
+                @Override
+                public boolean hasNext() {
+                    return read < count;
+                }
+
+                @Override
+                public E next() {
+                    try {
+                        E value = Reader.this.next();
+                        if (prev != null && order.compare(prev, value) >= 0) {
+                            throw new IOException("snapshot is not in ascending order for this comparator: " + file);
+                        }
+                        prev = value;
+                        return value;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+        }
+
+        void addAllTo(ISet<E> set) throws IOException {
+            while (read < count) {
+                E value = next();
+                if (!set.add(value)) {
+                    throw new IOException("snapshot has duplicate element " + value + ": " + file);
+                }
+            }
+        }
+
+        /**
+         * @throws IOException if not all elements were consumed or the checksum does not match
+         */
+        void finish() throws IOException {
+            if (read != count) {
+                throw new IOException("snapshot was not read to the end: " + file);
+            }
+            require(Long.BYTES);
+            int pos = buffer.position();
+            buffer.position(0).limit(pos);
+            crc.update(buffer);
+            buffer.limit(pos + Long.BYTES);
+            if (buffer.getLong(pos) != crc.getValue()) {
+                throw new IOException("snapshot checksum mismatch: " + file);
+            }
+        }
+
+        /**
+         * Makes at least n unread bytes available in the buffer, first folding the bytes
+         * already consumed into the checksum.
+         */
+        private void require(int n) throws IOException {
+            if (buffer.remaining() >= n) {
+                return;
+            }
+            int pos = buffer.position();
+            ByteBuffer consumed = buffer.duplicate();
+            consumed.position(0).limit(pos);
+            crc.update(consumed);
+            buffer.compact();
+            while (buffer.position() < n) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("snapshot is truncated: " + file);
+                }
+            }
+            buffer.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
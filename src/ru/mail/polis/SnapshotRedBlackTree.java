@@ -0,0 +1,135 @@
+package ru.mail.polis;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe sorted set that publishes every update as a new {@link PersistentRedBlackTree}
+ * version through an atomic reference.
+ * <p>
+ * Readers never lock and never copy: {@link #snapshot()} is a single volatile read, and the
+ * returned version stays consistent however the set changes afterwards. Every read method of
+ * this class works on the version current at the moment of the call, so its iterators, unlike
+ * those of the mutable trees, tolerate concurrent updates and never see them. Writers build the
+ * next version by path copying, O(log n), and publish it with compareAndSet, retrying if
+ * another writer got in first.
+ */
+public class SnapshotRedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private final AtomicReference<PersistentRedBlackTree<E>> current;
+
+    public SnapshotRedBlackTree() {
+        this(null);
+    }
+
+    public SnapshotRedBlackTree(Comparator<E> comparator) {
+        this.current = new AtomicReference<>(new PersistentRedBlackTree<>(comparator));
+    }
+
+    /**
+     * @return the current version, immutable and safe to read from any thread
+     */
+    public PersistentRedBlackTree<E> snapshot() {
+        return current.get();
+    }
+
+    @Override
+    public boolean add(E value) {
+        while (true) {
+            PersistentRedBlackTree<E> version = current.get();
+            PersistentRedBlackTree<E> next = version.plus(value);
+            if (next == version) {
+                return false;
+            }
+            if (current.compareAndSet(version, next)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(E value) {
+        while (true) {
+            PersistentRedBlackTree<E> version = current.get();
+            PersistentRedBlackTree<E> next = version.minus(value);
+            if (next == version) {
+                return false;
+            }
+            if (current.compareAndSet(version, next)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return snapshot().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return snapshot().isEmpty();
+    }
+
+    @Override
+    public boolean contains(E value) {
+        return snapshot().contains(value);
+    }
+
+    @Override
+    public E first() {
+        return snapshot().first();
+    }
+
+    @Override
+    public E last() {
+        return snapshot().last();
+    }
+
+    @Override
+    public List<E> inorderTraverse() {
+        return snapshot().inorderTraverse();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return snapshot().iterator();
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return snapshot().descendingIterator();
+    }
+
+    @Override
+    public E floor(E value) {
+        return snapshot().floor(value);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return snapshot().ceiling(value);
+    }
+
+    @Override
+    public E higher(E value) {
+        return snapshot().higher(value);
+    }
+
+    @Override
+    public E lower(E value) {
+        return snapshot().lower(value);
+    }
+
+    @Override
+    public Iterator<E> range(E from, E to) {
+        return snapshot().range(from, to);
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}